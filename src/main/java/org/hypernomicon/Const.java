@@ -57,6 +57,7 @@ public final class Const
     HDB_DEFAULT_FILENAME = "database.hdb",
     PREF_KEY_HDB_MRU = "hbdMru",
     PREF_KEY_AUTO_IMPORT = "autoImport",
+    PREF_KEY_WATCHER_QUIET_TIME_MS = "watcherQuietTimeMS",
     PREF_KEY_IMAGE_EDITOR = "imageEditor",
     PREF_KEY_IMAGE_EDITOR_COMMANDS = "imageEditorCommands",
     PREF_KEY_IMAGE_EDITOR_COMMAND_TYPE = "imageEditorCommandType",
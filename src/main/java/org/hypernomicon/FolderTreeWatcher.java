@@ -42,11 +42,19 @@ import java.nio.file.WatchService;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
 
+import org.hypernomicon.FolderTreeWatcher.WatcherEvent.WatcherEventKind;
 import org.hypernomicon.HyperTask.HyperThread;
 import org.hypernomicon.model.HyperDB.HDB_MessageType;
 import org.hypernomicon.model.items.HyperPath;
@@ -58,6 +66,9 @@ import org.hypernomicon.util.DesktopUtil;
 import org.hypernomicon.util.filePath.FilePath;
 import org.hypernomicon.util.filePath.FilePathSet;
 
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.ListMultimap;
+
 import javafx.application.Platform;
 import javafx.stage.Modality;
 
@@ -93,6 +104,10 @@ public class FolderTreeWatcher
     private boolean done = false;
     private final WatchService watcher;
     private final Map<WatchKey, HDT_Folder> watchKeyToDir;
+    private final ScheduledThreadPoolExecutor worker;
+    private final Map<FilePath, WatcherEventKind> pendingEvents = new LinkedHashMap<>(),
+                                                  firstPendingKinds = new HashMap<>(); // Kind of the first event for each path in the batch
+    private long firstPendingTime, lastPendingTime;
     private boolean sentResponse = false;
     private HDB_MessageType requestType;
 
@@ -106,6 +121,18 @@ public class FolderTreeWatcher
       this.watcher = watcher;
       this.watchKeyToDir = watchKeyToDir;
 
+      // Settled events are handled one batch at a time, in order, on the worker thread. Delayed
+      // checks are scheduled on it too, so nothing ever sleeps on this thread.
+
+      worker = new ScheduledThreadPoolExecutor(1, runnable ->
+      {
+        HyperThread thread = new HyperThread(runnable, "FolderTreeWorker");
+        thread.setDaemon(true);
+        return thread;
+      });
+
+      worker.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+
       start();
     }
 
@@ -120,6 +147,15 @@ public class FolderTreeWatcher
     //---------------------------------------------------------------------------
     //---------------------------------------------------------------------------
 
+    private void schedule(Runnable runnable, long delayMS)
+    {
+      try { worker.schedule(runnable, delayMS, TimeUnit.MILLISECONDS); }
+      catch (RejectedExecutionException e) { noOp(); } // The watcher has been stopped
+    }
+
+    //---------------------------------------------------------------------------
+    //---------------------------------------------------------------------------
+
     @Override public void run()
     {
       clearKeyQueue();
@@ -148,7 +184,6 @@ public class FolderTreeWatcher
           return;
         }
 
-        List<WatcherEvent> eventList = null;
         WatchKey watchKey = null;
 
         if (handleInterComputerMessage() == false)
@@ -157,83 +192,237 @@ public class FolderTreeWatcher
           catch (InterruptedException e1) { return; }
         }
 
-        if (watchKey != null)
-          eventList = new ArrayList<>();
-
         while (watchKey != null)
         {
-          List<WatcherEvent> shortList = new ArrayList<>();
+          collectEvents(watchKey);
 
-          for (final WatchEvent<?> event : watchKey.pollEvents())
-          {
-            @SuppressWarnings("unchecked")
-            WatchEvent<Path> watchEvent = (WatchEvent<Path>) event;
+          watchKey.reset();
 
-            HDT_Folder folder = watchKeyToDir.get(watchKey);
+          watchKey = watcher.poll();
+        }
 
-            if (folder == null)
-            {
-              folder = HyperPath.getFolderFromFilePath(new FilePath((Path)watchKey.watchable()), false);
-              watchKeyToDir.put(watchKey, folder);
-            }
+        if (pendingEvents.isEmpty()) continue;
 
-            if (folder.getID() > 0)
-            {
-              FilePath filePath = folder.filePath().resolve(new FilePath(watchEvent.context())); // This is what actually changed
-              PathInfo newPathInfo = new PathInfo(filePath);
-              WatcherEvent watcherEvent = null;
+        // Hand the events off once things have been quiet for a while, or every so often if they never are
 
-              if      (watchEvent.kind() == ENTRY_CREATE) watcherEvent = new WatcherEvent(wekCreate, null,        newPathInfo);
-              else if (watchEvent.kind() == ENTRY_DELETE) watcherEvent = new WatcherEvent(wekDelete, newPathInfo, null       );
-              else if (watchEvent.kind() == ENTRY_MODIFY) watcherEvent = new WatcherEvent(wekModify, newPathInfo, newPathInfo);
+        long now = System.currentTimeMillis(),
+             quietTime = appPrefs.getInt(PREF_KEY_WATCHER_QUIET_TIME_MS, FOLDER_TREE_WATCHER_QUIET_TIME_MS);
 
-              if (watcherEvent != null)
-                shortList.add(watcherEvent);
-            }
-          }
+        if ((now - lastPendingTime >= quietTime) || (now - firstPendingTime >= quietTime * 10))
+        {
+          Map<FilePath, WatcherEventKind> batch = new LinkedHashMap<>(pendingEvents);
+          pendingEvents.clear();
+          firstPendingKinds.clear();
 
-          int deleteNdx = -1, createNdx = -1;
-          for (int ndx = 0; ndx < shortList.size(); ndx++)
-          {
-            WatcherEvent watcherEvent = shortList.get(ndx);
+          worker.execute(() -> processBatch(batch));
+        }
+      }
+    }
 
-            if      (watcherEvent.kind == wekDelete) deleteNdx = ndx;
-            else if (watcherEvent.kind == wekCreate) createNdx = ndx;
-          }
+  //---------------------------------------------------------------------------
+  //---------------------------------------------------------------------------
 
-          if ((deleteNdx >= 0) && (createNdx >= 0))
-          {
-            PathInfo oldPathInfo = shortList.get(deleteNdx).oldPathInfo,
-                     newPathInfo = shortList.get(createNdx).newPathInfo;
+    private void collectEvents(WatchKey watchKey)
+    {
+      List<WatchEvent<?>> events = watchKey.pollEvents();
+      HDT_Folder folder = watchKeyToDir.get(watchKey);
 
-            if (oldPathInfo.getParentFolder() == newPathInfo.getParentFolder())
-            {
-              shortList.add(new WatcherEvent(wekRename, oldPathInfo, newPathInfo));
-              WatcherEvent watcherEvent = shortList.get(createNdx);
-              shortList.remove(deleteNdx);
-              shortList.remove(watcherEvent);
-            }
-          }
+      if (folder == null)
+      {
+        folder = HyperPath.getFolderFromFilePath(new FilePath((Path)watchKey.watchable()), false);
+        if (folder == null) return;
 
-          eventList.addAll(shortList);
+        watchKeyToDir.put(watchKey, folder);
+      }
 
-          watchKey.reset();
+      if (folder.getID() < 1) return;
 
-          watchKey = watcher.poll();
-        }
+      for (WatchEvent<?> event : events)
+      {
+        WatcherEventKind kind;
 
-        if (eventList != null)
-        {
-          try
+        if      (event.kind() == ENTRY_CREATE) kind = wekCreate;
+        else if (event.kind() == ENTRY_DELETE) kind = wekDelete;
+        else if (event.kind() == ENTRY_MODIFY) kind = wekModify;
+        else continue;
+
+        FilePath filePath = folder.filePath().resolve(new FilePath((Path)event.context())); // This is what actually changed
+
+        if (filePath.equals(db.snapshotPath())) continue; // The XML snapshot cache is not part of the database
+
+        coalesceEvent(filePath, kind);
+      }
+    }
+
+  //---------------------------------------------------------------------------
+  //---------------------------------------------------------------------------
+
+    // Only the net change to each path since the last batch is kept. A creation followed by a deletion only cancels out
+    // if the path didn't exist when the batch started, i.e., the first event for it in the batch was a creation.
+
+    private void coalesceEvent(FilePath filePath, WatcherEventKind kind)
+    {
+      long now = System.currentTimeMillis();
+
+      if (pendingEvents.isEmpty()) firstPendingTime = now;
+      lastPendingTime = now;
+
+      WatcherEventKind prevKind = pendingEvents.get(filePath);
+
+      if (prevKind != null) switch (kind)
+      {
+        case wekDelete:
+
+          if (firstPendingKinds.get(filePath) == wekCreate) // Created and then deleted again, so there is nothing to report
           {
-            processEventList(eventList);
+            pendingEvents.remove(filePath);
+            firstPendingKinds.remove(filePath);
+            return;
           }
-          catch (IOException e)
+
+          break;
+
+        case wekModify:
+
+          kind = prevKind; // A modification doesn't add anything to a creation or deletion
+          break;
+
+        default:
+          break;
+      }
+
+      pendingEvents.put(filePath, kind);
+      firstPendingKinds.putIfAbsent(filePath, kind);
+    }
+
+  //---------------------------------------------------------------------------
+  //---------------------------------------------------------------------------
+
+    // Anything thrown from here would just end up in a future that nothing checks, so it has to be reported here
+
+    private void processBatch(Map<FilePath, WatcherEventKind> batch)
+    {
+      try
+      {
+        processEventList(settleEvents(batch));
+      }
+      catch (IOException | RuntimeException e)
+      {
+        e.printStackTrace();
+        messageDialog("Unable to process watcher event list: " + e.getMessage(), mtError);
+      }
+    }
+
+  //---------------------------------------------------------------------------
+  //---------------------------------------------------------------------------
+
+    // Turns the batch into events, pairing up deletions with creations that are really renames or moves.
+    // A pair is the same file on disk if the file system has file keys; otherwise it is the only deletion
+    // and creation in the same folder, or the only deletion and creation with the same name. Those guesses
+    // are only made for events whose file key isn't known, since a known key that didn't match anything
+    // means the file really was deleted or created.
+
+    private List<WatcherEvent> settleEvents(Map<FilePath, WatcherEventKind> batch)
+    {
+      List<WatcherEvent> eventList = new ArrayList<>(), deletes = new ArrayList<>(), creates = new ArrayList<>();
+      Map<Object, WatcherEvent> fileKeyToDelete = new HashMap<>();
+      Map<WatcherEvent, WatcherEvent> createToDelete = new HashMap<>();
+      Set<WatcherEvent> keyedEvents = new HashSet<>();
+
+      batch.forEach((filePath, kind) ->
+      {
+        PathInfo pathInfo = new PathInfo(filePath);
+
+        if (kind == wekCreate)
+        {
+          WatcherEvent watcherEvent = new WatcherEvent(wekCreate, null, pathInfo);
+          creates.add(watcherEvent);
+          eventList.add(watcherEvent);
+        }
+        else if (kind == wekDelete)
+        {
+          WatcherEvent watcherEvent = new WatcherEvent(wekDelete, pathInfo, null);
+          Object fileKey = pathToFileKey.remove(filePath);
+
+          if (fileKey != null)
           {
-            messageDialog("Unable to process watcher event list: " + e.getMessage(), mtError);
+            fileKeyToDelete.put(fileKey, watcherEvent);
+            keyedEvents.add(watcherEvent);
           }
+
+          deletes.add(watcherEvent);
+          eventList.add(watcherEvent);
         }
+        else
+          eventList.add(new WatcherEvent(wekModify, pathInfo, pathInfo));
+      });
+
+      if (deletes.isEmpty() || creates.isEmpty()) return eventList;
+
+      // A rename can only be followed if the new location is in a folder the database knows about
+
+      creates.removeIf(create -> create.newPathInfo.getParentFolder() == null);
+
+      for (WatcherEvent create : creates)
+      {
+        FilePath filePath = create.newPathInfo.getFilePath();
+        Object fileKey = readFileKey(filePath);
+
+        if (fileKey == null) continue;
+
+        pathToFileKey.put(filePath, fileKey);
+        keyedEvents.add(create);
+
+        WatcherEvent delete = fileKeyToDelete.remove(fileKey);
+        if (delete != null)
+          createToDelete.put(create, delete);
+      }
+
+      deletes.removeIf(keyedEvents::contains);
+      creates.removeIf(keyedEvents::contains);
+
+      pairUniqueEvents(deletes, creates, createToDelete, FilePath::getParent);
+      pairUniqueEvents(deletes, creates, createToDelete, FilePath::getNameOnly);
+
+      if (createToDelete.isEmpty()) return eventList;
+
+      Set<WatcherEvent> pairedDeletes = new HashSet<>(createToDelete.values());
+      List<WatcherEvent> settledList = new ArrayList<>();
+
+      for (WatcherEvent watcherEvent : eventList)
+      {
+        if (pairedDeletes.contains(watcherEvent)) continue;
+
+        WatcherEvent delete = createToDelete.get(watcherEvent);
+        settledList.add(delete == null ? watcherEvent : new WatcherEvent(wekRename, delete.oldPathInfo, watcherEvent.newPathInfo));
       }
+
+      return settledList;
+    }
+
+  //---------------------------------------------------------------------------
+  //---------------------------------------------------------------------------
+
+    private void pairUniqueEvents(List<WatcherEvent> deletes, List<WatcherEvent> creates, Map<WatcherEvent, WatcherEvent> createToDelete,
+                                  Function<FilePath, FilePath> keyFunction)
+    {
+      Set<WatcherEvent> pairedDeletes = new HashSet<>(createToDelete.values());
+      ListMultimap<FilePath, WatcherEvent> keyToDeletes = ArrayListMultimap.create(),
+                                           keyToCreates = ArrayListMultimap.create();
+
+      deletes.stream().filter(delete -> pairedDeletes.contains(delete) == false)
+                      .forEach(delete -> keyToDeletes.put(keyFunction.apply(delete.oldPathInfo.getFilePath()), delete));
+
+      creates.stream().filter(create -> createToDelete.containsKey(create) == false)
+                      .forEach(create -> keyToCreates.put(keyFunction.apply(create.newPathInfo.getFilePath()), create));
+
+      keyToDeletes.asMap().forEach((key, keyDeletes) ->
+      {
+        List<WatcherEvent> keyCreates = keyToCreates.get(key);
+
+        if ((keyDeletes.size() == 1) && (keyCreates.size() == 1))
+          createToDelete.put(keyCreates.get(0), keyDeletes.iterator().next());
+      });
     }
 
   //---------------------------------------------------------------------------
@@ -256,6 +445,25 @@ public class FolderTreeWatcher
     //---------------------------------------------------------------------------
     //---------------------------------------------------------------------------
 
+    // Sometimes the file is created empty and immediately filled with data
+
+    private void importWhenFilled(FilePath filePath, int triesLeft)
+    {
+      long size = 0;
+
+      try { size = filePath.size(); }
+      catch (NoSuchFileException e) { noOp(); }
+      catch (IOException e)         { return; }
+
+      if (size > 0)
+        doImport(filePath);
+      else if (triesLeft > 0)
+        schedule(() -> importWhenFilled(filePath, triesLeft - 1), 500);
+    }
+
+    //---------------------------------------------------------------------------
+    //---------------------------------------------------------------------------
+
     private String deletedMsg(FilePath filePath)
     {
       return "A file that is in use by the database, \"" + filePath.getNameOnly() +
@@ -284,6 +492,8 @@ public class FolderTreeWatcher
         System.out.println("---------------------------");
       }
 
+      boolean refresh = false, prune = false;
+
       for (WatcherEvent watcherEvent : eventList)
       {
         PathInfo oldPathInfo = watcherEvent.oldPathInfo,
@@ -302,26 +512,10 @@ public class FolderTreeWatcher
                      newPath.getExtensionOnly().equalsIgnoreCase("pdf"))
             {
               downloading.add(newPath);
-
-              runOutsideFXThread(() -> { for (int ndx = 0; ndx <= 10; ndx++)
-              {
-                long size = 0;
-
-                try { size = newPath.size(); }
-                catch (NoSuchFileException e) { noOp(); }
-                catch (IOException e)         { return; }
-
-                if (size > 0)
-                {
-                  doImport(newPath);
-                  return;
-                }
-
-                sleepForMillis(500); // Sometimes the file is created empty and immediately filled with data
-              }});
+              importWhenFilled(newPath, 10);
             }
 
-            Platform.runLater(fileManagerDlg::refresh);
+            refresh = true;
 
             break;
 
@@ -339,20 +533,21 @@ public class FolderTreeWatcher
                 {
                   FilePath oldPath = oldPathInfo.getFilePath();
 
-                  Platform.runLater(() ->
+                  schedule(() ->
                   {
-                    sleepForMillis(2000);
-
                     if (oldPath.exists() == false)
                       messageDialog(deletedMsg(oldPath), mtWarning);
-                  });
+                  }, 2000);
                 }
               }
               else if (watcherEvent.isDirectory())
                 HDT_Folder.deleteFolderRecordTree((HDT_Folder) hyperPath.getRecord());
             }
 
-            Platform.runLater(fileManagerDlg::pruneAndRefresh);
+            if (watcherEvent.isDirectory())
+              forgetFileKeys(oldPathInfo.getFilePath());
+
+            prune = true;
 
             break;
 
@@ -387,60 +582,27 @@ public class FolderTreeWatcher
                 messageDialog(changedFolderMsg(), mtWarning);
               else
               {
-                Platform.runLater(() ->
-                {
-                  sleepForMillis(2000);
+                HyperPath inUsePath = hyperPath;
 
+                schedule(() ->
+                {
                   if ((newPath.exists() == false) || oldPathInfo.getFilePath().equals(newPath)) return;
 
-                  if (!confirmDialog("A file that is in use by the database has been renamed from outside the program." + System.lineSeparator() +
-                                     "This may or may not cause a data integrity problem." + System.lineSeparator() +
-                                     "Should the record be reassigned to \"" + newPath.getNameOnly() + "\"?"))
-                    return;
-
-                  if (newPath.exists() == false)
-                  {
-                    messageDialog("The file \"" + newPath.getNameOnly() + "\" no longer exists. Record was not changed.", mtWarning);
-                    return;
-                  }
-
-                  hyperPath.assign(hyperPath.parentFolder(), newPath.getNameOnly());
-
-                  HDT_RecordWithPath record = hyperPath.getRecord();
-
-                  if (record == null)
-                    return;
-
-                  if ((record.getType() == hdtWorkFile) && (ui.activeTabEnum() == workTabEnum))
-                  {
-                    HDT_WorkFile workFile = (HDT_WorkFile) record;
-
-                    if (workFile.works.contains(ui.activeRecord()))
-                    {
-                      if      (ui.workHyperTab().wdc != null) ui.workHyperTab().wdc.btnCancel.fire();
-                      else if (ui.workHyperTab().fdc != null) ui.workHyperTab().fdc.btnCancel.fire();
-
-                      ui.workHyperTab().refreshFiles();
-                    }
-                  }
-                  else if ((record.getType() == hdtMiscFile) && (ui.activeTabEnum() == fileTabEnum))
-                  {
-                    if (ui.fileHyperTab().fdc != null)
-                      ui.fileHyperTab().fdc.btnCancel.fire();
-
-                    ui.fileHyperTab().refreshFile();
-                  }
-                });
+                  Platform.runLater(() -> confirmRename(inUsePath, newPathInfo));
+                }, 2000);
               }
             }
 
+            if (watcherEvent.isDirectory())
+              forgetFileKeys(oldPathInfo.getFilePath());
+
             if ((hyperPath != null) && watcherEvent.isDirectory())
             {
-              hyperPath.assign(hyperPath.parentFolder(), newPath.getNameOnly());
+              hyperPath.assign(newPathInfo.getParentFolder(), newPath.getNameOnly());
               registerTree(newPath);
             }
 
-            Platform.runLater(fileManagerDlg::refresh);
+            refresh = true;
 
             break;
 
@@ -463,6 +625,55 @@ public class FolderTreeWatcher
           }
         }
       }
+
+      if      (prune  ) Platform.runLater(fileManagerDlg::pruneAndRefresh);
+      else if (refresh) Platform.runLater(fileManagerDlg::refresh);
+    }
+
+  //---------------------------------------------------------------------------
+  //---------------------------------------------------------------------------
+
+    private void confirmRename(HyperPath hyperPath, PathInfo newPathInfo)
+    {
+      FilePath newPath = newPathInfo.getFilePath();
+
+      if (!confirmDialog("A file that is in use by the database has been renamed or moved from outside the program." + System.lineSeparator() +
+                         "This may or may not cause a data integrity problem." + System.lineSeparator() +
+                         "Should the record be reassigned to \"" + newPath.getNameOnly() + "\"?"))
+        return;
+
+      if (newPath.exists() == false)
+      {
+        messageDialog("The file \"" + newPath.getNameOnly() + "\" no longer exists. Record was not changed.", mtWarning);
+        return;
+      }
+
+      hyperPath.assign(newPathInfo.getParentFolder(), newPath.getNameOnly());
+
+      HDT_RecordWithPath record = hyperPath.getRecord();
+
+      if (record == null)
+        return;
+
+      if ((record.getType() == hdtWorkFile) && (ui.activeTabEnum() == workTabEnum))
+      {
+        HDT_WorkFile workFile = (HDT_WorkFile) record;
+
+        if (workFile.works.contains(ui.activeRecord()))
+        {
+          if      (ui.workHyperTab().wdc != null) ui.workHyperTab().wdc.btnCancel.fire();
+          else if (ui.workHyperTab().fdc != null) ui.workHyperTab().fdc.btnCancel.fire();
+
+          ui.workHyperTab().refreshFiles();
+        }
+      }
+      else if ((record.getType() == hdtMiscFile) && (ui.activeTabEnum() == fileTabEnum))
+      {
+        if (ui.fileHyperTab().fdc != null)
+          ui.fileHyperTab().fdc.btnCancel.fire();
+
+        ui.fileHyperTab().refreshFile();
+      }
     }
 
   //---------------------------------------------------------------------------
@@ -524,8 +735,10 @@ public class FolderTreeWatcher
   private WatchService watcher;
   private WatcherThread watcherThread;
   private final FilePathSet downloading = new FilePathSet();
-  private final Map<WatchKey, HDT_Folder> watchKeyToDir = new HashMap<>();
-  public static final int FOLDER_TREE_WATCHER_POLL_TIME_MS = 100;
+  private final Map<WatchKey, HDT_Folder> watchKeyToDir = new ConcurrentHashMap<>();
+  private final Map<FilePath, Object> pathToFileKey = new ConcurrentHashMap<>(); // Used to recognize a file that has been moved
+  public static final int FOLDER_TREE_WATCHER_POLL_TIME_MS = 100,
+                          FOLDER_TREE_WATCHER_QUIET_TIME_MS = 500;
   private static boolean alreadyImporting = false;
   private boolean stopRequested = false,
                   stopped = true,
@@ -547,6 +760,7 @@ public class FolderTreeWatcher
     if (disabled || db.isLoaded() == false) return false;
 
     watchKeyToDir.clear();
+    pathToFileKey.clear();
 
     try
     {
@@ -578,7 +792,7 @@ public class FolderTreeWatcher
         Objects.requireNonNull(path);
         Objects.requireNonNull(attrs);
 
-        if (new FilePath(path).exists() == false) return FileVisitResult.SKIP_SUBTREE;
+        if ((new FilePath(path).exists() == false) || db.snapshotPath().equals(new FilePath(path))) return FileVisitResult.SKIP_SUBTREE;
 
         HDT_Folder folder = HyperPath.getFolderFromFilePath(new FilePath(path), true);
 
@@ -586,6 +800,7 @@ public class FolderTreeWatcher
           throw new IOException(new HDB_InternalError(92733));
 
         watchKeyToDir.put(path.register(watcher, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY), folder);
+        rememberFileKey(path, attrs);
 
         return FileVisitResult.CONTINUE;
       }
@@ -597,6 +812,8 @@ public class FolderTreeWatcher
       {
         Objects.requireNonNull(path);
         Objects.requireNonNull(attrs);
+
+        rememberFileKey(path, attrs);
         return FileVisitResult.CONTINUE;
       }
 
@@ -627,6 +844,29 @@ public class FolderTreeWatcher
     });
   }
 
+//---------------------------------------------------------------------------
+//---------------------------------------------------------------------------
+
+  // File keys are null on file systems that don't have them, e.g. on Windows
+
+  private void rememberFileKey(Path path, BasicFileAttributes attrs)
+  {
+    if (attrs.fileKey() != null)
+      pathToFileKey.put(new FilePath(path), attrs.fileKey());
+  }
+
+  private static Object readFileKey(FilePath filePath)
+  {
+    try { return Files.readAttributes(filePath.toPath(), BasicFileAttributes.class).fileKey(); }
+    catch (IOException e) { return null; }
+  }
+
+  private void forgetFileKeys(FilePath dirPath)
+  {
+    Path path = dirPath.toPath();
+    pathToFileKey.keySet().removeIf(filePath -> filePath.toPath().startsWith(path));
+  }
+
 //---------------------------------------------------------------------------
 //---------------------------------------------------------------------------
 
@@ -649,10 +889,18 @@ public class FolderTreeWatcher
   {
     boolean wasRunning = isRunning();
 
-    if ((watcherThread != null) && watcherThread.isAlive())
+    if (watcherThread != null)
     {
-      stopRequested = true;
-      try { watcherThread.join(); } catch (InterruptedException e) { noOp(); }
+      if (watcherThread.isAlive())
+      {
+        stopRequested = true;
+        try { watcherThread.join(); } catch (InterruptedException e) { noOp(); }
+      }
+
+      // Let the batch being handled finish; pending delayed checks are dropped
+
+      watcherThread.worker.shutdown();
+      try { watcherThread.worker.awaitTermination(5, TimeUnit.SECONDS); } catch (InterruptedException e) { noOp(); }
     }
 
     if ((watcher != null) && (stopped == false))
@@ -773,7 +773,7 @@ public class BibManager extends HyperDlg
       return;
     }
 
-    if (libraryWrapper.getTrash().contains(libraryWrapper.getEntryByKey(key)))
+    if (libraryWrapper.isTrashed(libraryWrapper.getEntryByKey(key)))
       collTree.selectTrash();
     else
       collTree.selectAllEntries();
@@ -29,13 +29,11 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.function.BiConsumer;
-import java.util.function.Predicate;
 
 import org.apache.http.client.methods.HttpUriRequest;
 import org.json.simple.parser.ParseException;
 
 import com.google.common.collect.EnumHashBiMap;
-import com.google.common.collect.ImmutableSet;
 
 import org.hypernomicon.HyperTask;
 import org.hypernomicon.bib.data.EntryType;
@@ -82,7 +80,43 @@ public abstract class LibraryWrapper<BibEntry_T extends BibEntry, BibCollection_
     public boolean getChanged() { return changed; }
   }
 
+  //---------------------------------------------------------------------------
+
+  // Non-trash entries, sorted by collection. Built the first time it is needed and thrown away when
+  // entries are loaded, synced, or rekeyed; new entries are added to it directly.
+
+  private final class EntryIndex
+  {
+    private final Set<BibEntry_T> nonTrash = new LinkedHashSet<>(), unsorted = new LinkedHashSet<>();
+    private final Map<String, Set<BibEntry_T>> collKeyToEntries = new HashMap<>();
+
+    private EntryIndex()
+    {
+      keyToAllEntry.values().forEach(entry ->
+      {
+        if (isTrashed(entry) == false) add(entry);
+      });
+    }
+
+    private void add(BibEntry_T entry)
+    {
+      nonTrash.add(entry);
+
+      List<String> collKeys = entry.getCollKeys(false);
+
+      collKeys.forEach(collKey -> collKeyToEntries.computeIfAbsent(collKey, key -> new LinkedHashSet<>()).add(entry));
+
+      if (collKeys.stream().noneMatch(keyToColl::containsKey))
+        unsorted.add(entry);
+    }
+  }
+
+  //---------------------------------------------------------------------------
+
   private final List<String> keyList = new ArrayList<>();
+  private final Map<String, Integer> keyToNumericID = new HashMap<>();
+  private EntryIndex entryIndex = null;
+  private long entriesGeneration = 0; // Incremented whenever entryIndex would need to be rebuilt or updated
 
   protected final Map<String, BibEntry_T> keyToAllEntry = new HashMap<>(), keyToTrashEntry = new HashMap<>();
   protected final Map<String, BibCollection_T> keyToColl = new HashMap<>();
@@ -110,6 +144,7 @@ public abstract class LibraryWrapper<BibEntry_T extends BibEntry, BibCollection_
 
   public BibEntry_T getEntryByKey(String key)            { return keyToAllEntry.get(key); }
   public BibEntry_T getEntryByID(int id)                 { return keyToAllEntry.get(keyList.get(id - 1)); }
+  public final boolean isTrashed(BibEntry entry)         { return (entry != null) && keyToTrashEntry.containsKey(entry.getKey()); }
 
   public final void setKeyChangeHandler(BiConsumer<String, String> hndlr) { keyChangeHndlr = hndlr; }
 
@@ -122,6 +157,44 @@ public abstract class LibraryWrapper<BibEntry_T extends BibEntry, BibCollection_
     keyToTrashEntry.clear();
     keyToColl.clear();
     keyList.clear();
+    keyToNumericID.clear();
+
+    entriesChanged();
+  }
+
+  //---------------------------------------------------------------------------
+
+  // Has to be called after entries are added, removed, moved to or from the trash, or have their collections changed,
+  // other than by addEntry
+
+  protected final synchronized void entriesChanged()
+  {
+    entryIndex = null;
+    entriesGeneration++;
+  }
+
+  // The index is built outside the lock, and only kept if the entries didn't change in the meantime
+
+  private EntryIndex entryIndex()
+  {
+    EntryIndex index;
+    long generation;
+
+    synchronized (this)
+    {
+      if (entryIndex != null) return entryIndex;
+      generation = entriesGeneration;
+    }
+
+    index = new EntryIndex();
+
+    synchronized (this)
+    {
+      if (entriesGeneration == generation)
+        entryIndex = index;
+    }
+
+    return index;
   }
 
   //---------------------------------------------------------------------------
@@ -150,6 +223,8 @@ public abstract class LibraryWrapper<BibEntry_T extends BibEntry, BibCollection_
     if (keyToColl.containsKey(oldKey))
       keyToColl.put(newKey, keyToColl.remove(oldKey));
 
+    entriesChanged();
+
     nullSwitch(db.getWorkByBibEntryKey(oldKey), work -> work.setBibEntryKey(newKey));
 
     keyChangeHndlr.accept(oldKey, newKey);
@@ -305,6 +380,12 @@ public abstract class LibraryWrapper<BibEntry_T extends BibEntry, BibCollection_
 
     keyToAllEntry.put(item.getKey(), item);
 
+    synchronized (this)
+    {
+      nullSwitch(entryIndex, index -> index.add(item));
+      entriesGeneration++; // An index being built right now might not have the new entry
+    }
+
     return item;
   }
 
@@ -313,8 +394,9 @@ public abstract class LibraryWrapper<BibEntry_T extends BibEntry, BibCollection_
 
   public Set<BibEntry_T> getCollectionEntries(String collKey)
   {
-    return getNonTrashEntries().stream().filter(item -> item.getCollKeys(false).contains(collKey))
-                                        .collect(ImmutableSet.toImmutableSet());
+    Set<BibEntry_T> entries = entryIndex().collKeyToEntries.get(collKey);
+
+    return entries == null ? Collections.emptySet() : Collections.unmodifiableSet(entries);
   }
 
 //---------------------------------------------------------------------------
@@ -322,8 +404,7 @@ public abstract class LibraryWrapper<BibEntry_T extends BibEntry, BibCollection_
 
   public Set<BibEntry_T> getNonTrashEntries()
   {
-    return keyToAllEntry.values().stream().filter(item -> keyToTrashEntry.containsKey(item.getKey()) == false)
-                                          .collect(ImmutableSet.toImmutableSet());
+    return Collections.unmodifiableSet(entryIndex().nonTrash);
   }
 
 //---------------------------------------------------------------------------
@@ -331,15 +412,7 @@ public abstract class LibraryWrapper<BibEntry_T extends BibEntry, BibCollection_
 
   public Set<BibEntry_T> getUnsorted()
   {
-    Predicate<BibEntry_T> predicate = item ->
-    {
-      return keyToTrashEntry.containsKey(item.getKey()) ?
-        false
-      :
-        item.getCollKeys(true).stream().noneMatch(keyToColl::containsKey);
-    };
-
-    return keyToAllEntry.values().stream().filter(predicate).collect(ImmutableSet.toImmutableSet());
+    return Collections.unmodifiableSet(entryIndex().unsorted);
   }
 
 //---------------------------------------------------------------------------
@@ -372,6 +445,8 @@ public abstract class LibraryWrapper<BibEntry_T extends BibEntry, BibCollection_
       if (coll != null)
         keyToColl.put(coll.getKey(), coll);
     }));
+
+    entriesChanged();
   }
 
 //---------------------------------------------------------------------------
@@ -429,15 +504,16 @@ public abstract class LibraryWrapper<BibEntry_T extends BibEntry, BibCollection_
 
   public int numericID(String key)
   {
-    int ndx = keyList.indexOf(key);
+    Integer id = keyToNumericID.get(key);
 
-    if (ndx < 0)
+    if (id == null)
     {
-      ndx = keyList.size();
       keyList.add(key);
+      id = keyList.size();
+      keyToNumericID.put(key, id);
     }
 
-    return ndx + 1;
+    return id;
   }
 
 //---------------------------------------------------------------------------
@@ -31,6 +31,7 @@ import org.hypernomicon.bib.authors.BibAuthors;
 import org.hypernomicon.bib.data.BibField.BibFieldEnum;
 import org.hypernomicon.model.records.HDT_Work;
 import org.hypernomicon.model.records.SimpleRecordTypes.HDT_WorkType;
+import org.hypernomicon.util.IdentifierScanner;
 import org.hypernomicon.util.Util;
 
 import static org.hypernomicon.bib.data.BibField.BibFieldEnum.*;
@@ -143,9 +144,16 @@ public abstract class BibData
 
   public void extractDOIandISBNs(String value)
   {
-    setDOI(value);
-    addISBN(value);
-    addISSN(value);
+    if (safeStr(value).isEmpty()) return;
+
+    IdentifierScanner scanner = new IdentifierScanner(value); // Shared so the text is only prepared once
+
+    String doi = scanner.getDOI();
+    if (doi.length() > 0)
+      setStr(bfDOI, doi);
+
+    scanner.getISBNs().forEach(isbn -> addStr(bfISBNs, isbn));
+    scanner.getISSNs().forEach(issn -> addStr(bfISSNs, issn));
   }
 
 //---------------------------------------------------------------------------
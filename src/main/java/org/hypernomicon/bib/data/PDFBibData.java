@@ -25,19 +25,29 @@ import static org.hypernomicon.util.Util.*;
 import static org.hypernomicon.util.MediaUtil.*;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
 import java.util.function.Predicate;
 
 import org.apache.commons.io.FilenameUtils;
+import org.apache.pdfbox.io.MemoryUsageSetting;
 import org.apache.pdfbox.pdmodel.PDDocument;
 import org.apache.pdfbox.pdmodel.PDDocumentInformation;
 import org.apache.pdfbox.pdmodel.common.PDMetadata;
 import org.apache.pdfbox.text.PDFTextStripper;
+import org.hypernomicon.HyperTask;
+import org.hypernomicon.HyperTask.HyperThread;
 import org.hypernomicon.bib.authors.BibAuthor.AuthorType;
 import org.hypernomicon.bib.authors.BibAuthorsStandalone;
 import org.hypernomicon.model.items.PersonName;
@@ -49,6 +59,8 @@ import com.adobe.internal.xmp.XMPMeta;
 import com.adobe.internal.xmp.XMPMetaFactory;
 import com.adobe.internal.xmp.properties.XMPPropertyInfo;
 
+import javafx.application.Platform;
+
 public class PDFBibData extends BibDataStandalone
 {
 
@@ -273,9 +285,9 @@ public class PDFBibData extends BibDataStandalone
         {
           if (name.equals("creator"))
           {
-            authors.clear();
+            bd.authors.clear();
 
-            elements.forEach(child -> authors.add(AuthorType.author, new PersonName(child.value)));
+            elements.forEach(child -> bd.authors.add(AuthorType.author, new PersonName(child.value)));
           }
           else if (name.equals("title"))
           {
@@ -374,8 +386,20 @@ public class PDFBibData extends BibDataStandalone
 //---------------------------------------------------------------------------
 //---------------------------------------------------------------------------
 
+  private static final int MAX_EXTRACTION_THREADS = 4, EXTRACTION_CACHE_SIZE = 64;
+  private static final long MAX_MAIN_MEMORY_BYTES = 64L * 1024 * 1024;
+
+  // Keys are the file path, size, and modified time
+
+  private static final Map<String, PDFBibData> extractionCache = new LinkedHashMap<>(16, 0.75f, true)
+  {
+    @Override protected boolean removeEldestEntry(Map.Entry<String, PDFBibData> eldest) { return size() > EXTRACTION_CACHE_SIZE; }
+  };
+
   private PDDocumentInformation docInfo = null;
   private XMPNode xmpRoot = null;
+  private String xmpError = null; // Files can be read on worker threads, so errors are reported by createFromFiles
+  private boolean textSkipped = false;
 
   public PDDocumentInformation getDocInfo() { return docInfo; }
 
@@ -383,10 +407,45 @@ public class PDFBibData extends BibDataStandalone
 //---------------------------------------------------------------------------
 
   public PDFBibData(FilePath filePath) throws IOException
+  {
+    this(filePath, () -> false);
+  }
+
+//---------------------------------------------------------------------------
+//---------------------------------------------------------------------------
+
+  // Copies what was extracted from the file, but not anything populated from it afterward
+
+  private PDFBibData(PDFBibData other)
   {
     super();
 
-    try (PDDocument pdfDoc = PDDocument.load(filePath.toFile()))
+    docInfo = other.docInfo;
+    xmpRoot = other.xmpRoot;
+    xmpError = other.xmpError;
+
+    setStr(bfDOI, other.getStr(bfDOI));
+    setMultiStr(bfISBNs, other.getMultiStr(bfISBNs));
+    setMultiStr(bfISSNs, other.getMultiStr(bfISSNs));
+  }
+
+//---------------------------------------------------------------------------
+//---------------------------------------------------------------------------
+
+  // Text stripping stops once skipText returns true; the document info and XMP data are always read
+
+  private PDFBibData(FilePath filePath, BooleanSupplier skipText) throws IOException
+  {
+    super();
+
+    // Large files are buffered partly in a scratch file instead of entirely in memory
+
+    MemoryUsageSetting memUsage = filePath.size() > MAX_MAIN_MEMORY_BYTES ?
+      MemoryUsageSetting.setupMixed(MAX_MAIN_MEMORY_BYTES)
+    :
+      MemoryUsageSetting.setupMainMemoryOnly();
+
+    try (PDDocument pdfDoc = PDDocument.load(filePath.toFile(), memUsage))
     {
       setDocInfo(pdfDoc.getDocumentInformation());
       PDMetadata metadata = pdfDoc.getDocumentCatalog().getMetadata();
@@ -396,8 +455,7 @@ public class PDFBibData extends BibDataStandalone
         try { setXmpRoot(metadata.toByteArray()); }
         catch (XMPException e)
         {
-          messageDialog("An error occurred while parsing XMP data from PDF file: " +
-                        nullSwitch(e.getCause(), e.getMessage(), Throwable::getMessage), mtError, true);
+          xmpError = "An error occurred while parsing XMP data from PDF file: " + nullSwitch(e.getCause(), e.getMessage(), Throwable::getMessage);
 
           metadata = null;
           xmpRoot = null;
@@ -406,6 +464,12 @@ public class PDFBibData extends BibDataStandalone
 
       if (getStr(bfDOI).length() > 0) return;
 
+      if (skipText.getAsBoolean())
+      {
+        textSkipped = true;
+        return;
+      }
+
       PDFTextStripper pdfStripper = new PDFTextStripper();
 
       int numPages = pdfDoc.getNumberOfPages();
@@ -414,6 +478,12 @@ public class PDFBibData extends BibDataStandalone
 
       if (getStr(bfDOI).length() > 0) return;
 
+      if (skipText.getAsBoolean())
+      {
+        textSkipped = true;
+        return;
+      }
+
       if (numPages > 11)
         parseAndExtractIDs(pdfDoc, pdfStripper, numPages - 3, numPages);
     }
@@ -524,13 +594,17 @@ public class PDFBibData extends BibDataStandalone
     if (pdfFilePaths.isEmpty())
       return null;
 
-    PDFBibData firstPdfBD = null, lastPdfBD = null, goodPdfBD = null;
+    PDFBibData firstPdfBD = null, goodPdfBD = null;
     List<String> isbns = new ArrayList<>();
     String doi = "";
 
-    for (FilePath pdfFilePath : pdfFilePaths)
+    List<PDFBibData> pdfBDs = extractFromFiles(pdfFilePaths);
+
+    pdfBDs.stream().filter(pdfBD -> pdfBD.xmpError != null)
+                   .forEach(pdfBD -> messageDialog(pdfBD.xmpError, mtError, true));
+
+    for (PDFBibData lastPdfBD : pdfBDs)
     {
-      lastPdfBD = new PDFBibData(pdfFilePath);
       if (firstPdfBD == null)
         firstPdfBD = lastPdfBD;
 
@@ -580,4 +654,145 @@ public class PDFBibData extends BibDataStandalone
   //---------------------------------------------------------------------------
   //---------------------------------------------------------------------------
 
+  // Files are read concurrently. Once a file turns out to have a DOI, the files after it in the list
+  // skip text stripping, but their document info and XMP data are still read for ISBNs.
+
+  private static List<PDFBibData> extractFromFiles(List<FilePath> pdfFilePaths) throws IOException
+  {
+    if (pdfFilePaths.size() == 1)
+      return List.of(extractFromFile(pdfFilePaths.get(0), () -> false));
+
+    if (Platform.isFxApplicationThread() == false)
+      return extractConcurrently(pdfFilePaths, null);
+
+    // Waiting for the worker threads on the FX thread would freeze the UI, so wait from a task instead
+
+    List<PDFBibData> pdfBDs = new ArrayList<>();
+
+    HyperTask task = new HyperTask("ExtractPDFBibData") { @Override protected Boolean call() throws Exception
+    {
+      updateMessage("Extracting metadata from PDF files...");
+
+      pdfBDs.addAll(extractConcurrently(pdfFilePaths, this));
+      return true;
+    }};
+
+    if (HyperTask.performTaskWithProgressDialog(task)) return pdfBDs;
+
+    Throwable e = task.getException();
+
+    if (e instanceof IOException)      throw (IOException) e;
+    if (e instanceof RuntimeException) throw (RuntimeException) e;
+
+    throw new InterruptedIOException("Metadata extraction was cancelled.");
+  }
+
+  //---------------------------------------------------------------------------
+  //---------------------------------------------------------------------------
+
+  private static List<PDFBibData> extractConcurrently(List<FilePath> pdfFilePaths, HyperTask task) throws IOException
+  {
+    int threadCount = Math.min(pdfFilePaths.size(), Math.min(MAX_EXTRACTION_THREADS, Runtime.getRuntime().availableProcessors()));
+
+    ExecutorService pool = Executors.newFixedThreadPool(threadCount, runnable ->
+    {
+      HyperThread thread = new HyperThread(runnable, "PDFBibData");
+      thread.setDaemon(true);
+      return thread;
+    });
+
+    AtomicInteger firstDoiNdx = new AtomicInteger(Integer.MAX_VALUE);
+
+    try
+    {
+      List<Future<PDFBibData>> futures = new ArrayList<>();
+
+      for (int ndx = 0; ndx < pdfFilePaths.size(); ndx++)
+      {
+        int fileNdx = ndx;
+
+        // Once an earlier file has a DOI, later files only need their document info and XMP data, for the ISBNs
+
+        BooleanSupplier skipText = () -> firstDoiNdx.get() < fileNdx;
+
+        futures.add(pool.submit(() ->
+        {
+          PDFBibData pdfBD = extractFromFile(pdfFilePaths.get(fileNdx), skipText);
+
+          if (pdfBD.getStr(bfDOI).length() > 0)
+            firstDoiNdx.accumulateAndGet(fileNdx, Math::min);
+
+          return pdfBD;
+        }));
+      }
+
+      List<PDFBibData> pdfBDs = new ArrayList<>();
+
+      for (int ndx = 0; ndx < futures.size(); ndx++)
+      {
+        pdfBDs.add(getExtracted(futures.get(ndx)));
+
+        if (task != null)
+        {
+          if (task.isCancelled()) throw new InterruptedIOException();
+          task.updateProgress(ndx + 1, futures.size());
+        }
+      }
+
+      return pdfBDs;
+    }
+    finally
+    {
+      pool.shutdownNow();
+    }
+  }
+
+  //---------------------------------------------------------------------------
+  //---------------------------------------------------------------------------
+
+  private static PDFBibData getExtracted(Future<PDFBibData> future) throws IOException
+  {
+    try
+    {
+      return future.get();
+    }
+    catch (InterruptedException e)
+    {
+      throw new InterruptedIOException();
+    }
+    catch (ExecutionException e)
+    {
+      Throwable cause = e.getCause();
+
+      if (cause instanceof IOException)      throw (IOException) cause;
+      if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+
+      throw new IOException(cause);
+    }
+  }
+
+  //---------------------------------------------------------------------------
+  //---------------------------------------------------------------------------
+
+  private static PDFBibData extractFromFile(FilePath filePath, BooleanSupplier skipText) throws IOException
+  {
+    String cacheKey = filePath + "|" + filePath.size() + "|" + filePath.lastModified().toEpochMilli();
+    PDFBibData pdfBD;
+
+    synchronized (extractionCache) { pdfBD = extractionCache.get(cacheKey); }
+
+    if (pdfBD == null)
+    {
+      pdfBD = new PDFBibData(filePath, skipText);
+
+      if (pdfBD.textSkipped == false) // Don't cache partial results; a later call may need the text
+        synchronized (extractionCache) { extractionCache.put(cacheKey, pdfBD); }
+    }
+
+    return new PDFBibData(pdfBD); // The caller populates the one it gets back, so the cached one has to stay as it is
+  }
+
+  //---------------------------------------------------------------------------
+  //---------------------------------------------------------------------------
+
 }
@@ -143,7 +143,7 @@ public class MendeleyDocument extends BibEntry implements MendeleyEntity
   {
     JsonArray collArray = jObj.getArray("folder_uuids");
 
-    return (collArray != null) && ((mWrapper.getTrash().contains(this) == false) || deletedOK) ?
+    return (collArray != null) && ((mWrapper.isTrashed(this) == false) || deletedOK) ?
       Lists.newArrayList((Iterable<String>)collArray.getStrs())
     :
       new ArrayList<>();
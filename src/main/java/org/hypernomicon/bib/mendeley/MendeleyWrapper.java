@@ -602,6 +602,10 @@ public class MendeleyWrapper extends LibraryWrapper<MendeleyDocument, MendeleyFo
         String msg = "An error occurred while syncing: " + e.getMessage();
         throw new HyperDataException(msg, e);
       }
+      finally
+      {
+        entriesChanged();
+      }
     }};
 
     return syncTask;
@@ -144,7 +144,7 @@ public class ZoteroItem extends BibEntry implements ZoteroEntity
   {
     JsonArray collArray = jObj.getObj("data").getArray("collections");
 
-    return (collArray != null) && ((zWrapper.getTrash().contains(this) == false) || deletedOK) ?
+    return (collArray != null) && ((zWrapper.isTrashed(this) == false) || deletedOK) ?
       Lists.newArrayList((Iterable<String>)collArray.getStrs())
     :
       new ArrayList<>();
@@ -711,6 +711,10 @@ public class ZoteroWrapper extends LibraryWrapper<ZoteroItem, ZoteroCollection>
         String msg = "An error occurred while syncing: " + e.getMessage();
         throw new HyperDataException(msg, e);
       }
+      finally
+      {
+        entriesChanged();
+      }
     }};
 
     return syncTask;
@@ -38,10 +38,18 @@ import static org.hypernomicon.util.Util.MessageDialogType.*;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
-import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javafx.fxml.FXML;
 import javafx.scene.control.Label;
@@ -310,9 +318,9 @@ public class NewPersonDlgCtrlr extends HyperDlg
 //---------------------------------------------------------------------------
 //---------------------------------------------------------------------------
 
-  public static LinkedList<PersonForDupCheck> createListForDupCheck()
+  public static List<PersonForDupCheck> createListForDupCheck()
   {
-    LinkedList<PersonForDupCheck> list = new LinkedList<>();
+    List<PersonForDupCheck> list = new ArrayList<>();
     Set<HDT_Person> persons = new HashSet<>();
 
     db.works.forEach(work -> work.getAuthors().forEach(author ->
@@ -345,60 +353,223 @@ public class NewPersonDlgCtrlr extends HyperDlg
 //---------------------------------------------------------------------------
 //---------------------------------------------------------------------------
 
-  public static void doDupCheck(PersonForDupCheck person1, LinkedList<PersonForDupCheck> list, List<Author> matchedAuthors, HyperTask task, int ctr, int total) throws TerminateTaskException
+  private static boolean isDupMatch(PersonForDupCheck person1, PersonForDupCheck person2, HDT_Work work1)
   {
-    if (person1.fullLCNameEngChar.isEmpty()) return;
+    if      (nullSwitch(person1.author     , false, author1    -> author1    == person2.author     )) return false;
+    else if (nullSwitch(person1.getPerson(), false, personRec1 -> personRec1 == person2.getPerson())) return false;
 
-    Set<HDT_Person> matchedPersons = new HashSet<>();
+    if (person1.fullLCNameEngChar.equals(person2.fullLCNameEngChar))
+    {
+      if (work1 != null)
+      {
+        Author author2 = person2.author;
+
+        if (author2 != null)
+        {
+          if (work1 == author2.getWork())
+            return false;
+
+          if (nullSwitch(author2.getPerson(), false, personRec2 -> work1.getAuthors().containsPerson(personRec2)))
+            return false;
+        }
+      }
+
+      return nullSwitch(person2.author     , false, author2    ->
+             nullSwitch(author2.getWork()  , false, work2      ->
+             nullSwitch(person1.author     , false, author1    ->
+             nullSwitch(author1.getPerson(), false, personRec1 -> work2.getAuthors().containsPerson(personRec1))))) == false;
+    }
+
+    return person1.keySetNoNicknames.isSubsetOf(person2.keySet) ||
+           person2.keySetNoNicknames.isSubsetOf(person1.keySet);
+  }
+
+//---------------------------------------------------------------------------
+//---------------------------------------------------------------------------
+
+  // Two persons can only be a match if their full names are the same or one of their key sets without nicknames
+  // is a subset of the other's key set. So each person in the list is filed under its full name, under every key
+  // in its key set, and under one key from its key set without nicknames, and a person only has to be compared
+  // with the ones filed under the same keys. The matches are the same as when comparing with the whole list.
 
-    HDT_Work work1 = nullSwitch(person1.author, null, Author::getWork);
+  public static final class DupCheckIndex
+  {
+    private final List<PersonForDupCheck> list;
+    private final List<Integer> noProbeKeyNdxs = new ArrayList<>();
+    private final Map<String, List<Integer>> fullNameToNdxs = new HashMap<>(),
+                                             keyToNdxs      = new HashMap<>(),
+                                             probeKeyToNdxs = new HashMap<>();
+
+  //---------------------------------------------------------------------------
 
-    for (PersonForDupCheck person2 : list)
+    public DupCheckIndex(List<PersonForDupCheck> list)
     {
-      if      (nullSwitch(person1.author     , false, author1    -> author1    == person2.author     )) continue;
-      else if (nullSwitch(person1.getPerson(), false, personRec1 -> personRec1 == person2.getPerson())) continue;
+      this.list = new ArrayList<>(list);
 
-      boolean isMatch = false;
+      for (int ndx = 0; ndx < this.list.size(); ndx++)
+      {
+        int personNdx = ndx;
+        PersonForDupCheck person = this.list.get(ndx);
+
+        fullNameToNdxs.computeIfAbsent(person.fullLCNameEngChar, key -> new ArrayList<>()).add(ndx);
+        person.keySet.getKeys().forEach(key -> keyToNdxs.computeIfAbsent(key, k -> new ArrayList<>()).add(personNdx));
+      }
 
-      if (person1.fullLCNameEngChar.equals(person2.fullLCNameEngChar))
+      for (int ndx = 0; ndx < this.list.size(); ndx++)
       {
-        if (work1 != null)
-        {
-          Author author2 = person2.author;
+        String probeKey = getProbeKey(this.list.get(ndx));
 
-          if (author2 != null)
-          {
-            if (work1 == author2.getWork())
-              continue;
+        if (probeKey == null)
+          noProbeKeyNdxs.add(ndx);
+        else
+          probeKeyToNdxs.computeIfAbsent(probeKey, key -> new ArrayList<>()).add(ndx);
+      }
+    }
+
+  //---------------------------------------------------------------------------
+
+    // Returns the key from the person's key set without nicknames that is in the fewest key sets in the list. Any key set
+    // that the person's key set without nicknames is a subset of has this key. Returns null if that key set is empty.
+
+    private String getProbeKey(PersonForDupCheck person)
+    {
+      String probeKey = null;
+      int probeCount = Integer.MAX_VALUE;
+
+      for (String key : person.keySetNoNicknames.getKeys())
+      {
+        int count = nullSwitch(keyToNdxs.get(key), 0, List::size);
 
-            if (nullSwitch(author2.getPerson(), false, personRec2 -> work1.getAuthors().containsPerson(personRec2)))
-              continue;
-          }
+        if (count < probeCount)
+        {
+          probeKey = key;
+          probeCount = count;
         }
+      }
 
-        if (nullSwitch(person2.author     , false, author2    ->
-            nullSwitch(author2.getWork()  , false, work2      ->
-            nullSwitch(person1.author     , false, author1    ->
-            nullSwitch(author1.getPerson(), false, personRec1 -> work2.getAuthors().containsPerson(personRec1))))))
-          continue;
+      return probeKey;
+    }
+
+  //---------------------------------------------------------------------------
+
+    // Adds the indexes in the list that are not less than minNdx; the list is in ascending order
+
+    private static void addNdxs(List<Integer> ndxList, int minNdx, Set<Integer> ndxs)
+    {
+      if (ndxList == null) return;
+
+      int start = Collections.binarySearch(ndxList, minNdx);
+      ndxs.addAll(ndxList.subList(start < 0 ? -(start + 1) : start, ndxList.size()));
+    }
+
+  //---------------------------------------------------------------------------
+
+    private SortedSet<Integer> getCandidates(PersonForDupCheck person, int minNdx)
+    {
+      SortedSet<Integer> ndxs = new TreeSet<>();
+      String probeKey = getProbeKey(person);
 
-        isMatch = true;
+      if (probeKey == null) // The person's key set without nicknames is a subset of every key set
+      {
+        for (int ndx = minNdx; ndx < list.size(); ndx++)
+          ndxs.add(ndx);
+
+        return ndxs;
       }
-      else if (person1.keySetNoNicknames.isSubsetOf(person2.keySet) ||
-               person2.keySetNoNicknames.isSubsetOf(person1.keySet))
-        isMatch = true;
 
-      if (isMatch)
+      addNdxs(fullNameToNdxs.get(person.fullLCNameEngChar), minNdx, ndxs);
+      addNdxs(keyToNdxs.get(probeKey), minNdx, ndxs);
+
+      person.keySet.getKeys().forEach(key -> addNdxs(probeKeyToNdxs.get(key), minNdx, ndxs));
+      addNdxs(noProbeKeyNdxs, minNdx, ndxs);
+
+      return ndxs;
+    }
+
+  //---------------------------------------------------------------------------
+
+    // Compares the person with the ones in the list starting at minNdx, in list order
+
+    public void findMatches(PersonForDupCheck person1, int minNdx, List<Author> matchedAuthors)
+    {
+      if (person1.fullLCNameEngChar.isEmpty()) return;
+
+      HDT_Work work1 = nullSwitch(person1.author, null, Author::getWork);
+
+      for (int ndx : getCandidates(person1, minNdx))
       {
-        matchedAuthors.add(person2.author);
-        nullSwitch(person2.author.getPerson(), matchedPersons::add);
+        PersonForDupCheck person2 = list.get(ndx);
+
+        if (isDupMatch(person1, person2, work1))
+          matchedAuthors.add(person2.author);
       }
+    }
+
+  //---------------------------------------------------------------------------
+
+    // Returns, for each person in the list, the persons after it in the list that it matches. Persons are compared concurrently.
+
+    public List<List<Author>> findAllMatches(HyperTask task) throws TerminateTaskException
+    {
+      int threadCount = Math.max(1, Math.min(list.size(), Runtime.getRuntime().availableProcessors()));
+
+      ExecutorService pool = Executors.newFixedThreadPool(threadCount, runnable ->
+      {
+        HyperThread thread = new HyperThread(runnable, "DupCheck");
+        thread.setDaemon(true);
+        return thread;
+      });
+
+      AtomicInteger ctr = new AtomicInteger(0);
 
-      if (task.isCancelled()) throw new TerminateTaskException();
+      try
+      {
+        List<Future<List<Author>>> futures = new ArrayList<>();
+
+        for (int ndx = 0; ndx < list.size(); ndx++)
+        {
+          int personNdx = ndx;
+
+          futures.add(pool.submit(() ->
+          {
+            List<Author> matchedAuthors = new ArrayList<>();
+
+            if (task.isCancelled()) return matchedAuthors;
 
-      if ((ctr % 10) == 0) task.updateProgress(ctr, total);
+            findMatches(list.get(personNdx), personNdx + 1, matchedAuthors);
 
-      ctr++;
+            int done = ctr.incrementAndGet();
+            if ((done % 100) == 0) task.updateProgress(done, list.size());
+
+            return matchedAuthors;
+          }));
+        }
+
+        List<List<Author>> allMatches = new ArrayList<>();
+
+        for (Future<List<Author>> future : futures)
+        {
+          allMatches.add(future.get());
+          if (task.isCancelled()) throw new TerminateTaskException();
+        }
+
+        return allMatches;
+      }
+      catch (InterruptedException e)
+      {
+        throw new TerminateTaskException();
+      }
+      catch (ExecutionException e)
+      {
+        Throwable cause = e.getCause();
+
+        if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+        throw new TerminateTaskException(cause.getMessage());
+      }
+      finally
+      {
+        pool.shutdownNow();
+      }
     }
   }
 
@@ -413,7 +584,7 @@ public class NewPersonDlgCtrlr extends HyperDlg
 
       updateMessage("Checking for duplicates...");
 
-      LinkedList<PersonForDupCheck> list = createListForDupCheck();
+      DupCheckIndex index = new DupCheckIndex(createListForDupCheck());
 
       for (int ndx = 0; ndx < nameList.size(); ndx++)
       {
@@ -422,7 +593,11 @@ public class NewPersonDlgCtrlr extends HyperDlg
         Author author = queryAuthors.get(ndx);
         PersonForDupCheck person = new PersonForDupCheck(nameList.get(ndx), author);
 
-        doDupCheck(person, list, matchedAuthors, this, ndx * list.size(), nameList.size() * list.size());
+        index.findMatches(person, 0, matchedAuthors);
+
+        if (isCancelled()) throw new TerminateTaskException();
+
+        updateProgress(ndx + 1, nameList.size());
       }
 
       succeeded();
@@ -53,7 +53,7 @@ public class FileRow extends AbstractTreeRow<HDT_RecordWithPath, FileRow>
     this.hyperPath = hyperPath;
 
     if (treeModel != null)
-      treeItem = new TreeItem<>(this);
+      treeItem = treeModel.newTreeItem(this);
   }
 
 //---------------------------------------------------------------------------
@@ -63,7 +63,7 @@ public class FileRow extends AbstractTreeRow<HDT_RecordWithPath, FileRow>
   public HDT_Folder getFolder() { return hyperPath.parentFolder(); }
   String getFileName()          { return hyperPath.getNameStr(); }
   HyperPath getHyperPath()      { return hyperPath; }
-  private void determineType()  { if (mimetype == null) mimetype = getMediaType(hyperPath.filePath()); }
+  private void determineType()  { if (mimetype == null) mimetype = getMediaTypeQuickly(hyperPath.filePath()); }
 
   void setFolderTreeItem(TreeItem<FileRow> treeItem) { this.treeItem  = treeItem; }
 
@@ -166,6 +166,8 @@ public class FolderTreeWrapper extends AbstractTreeWrapper<FileRow>
 
   private void sortNode(TreeItem<FileRow> nodeItem)
   {
+    if (treeModel.childrenLoaded(nodeItem) == false) return; // Children get sorted when they are loaded
+
     nodeItem.getChildren().forEach(this::sortNode);
     
     nodeItem.getChildren().sort(sortBasis(TreeItem::getValue));
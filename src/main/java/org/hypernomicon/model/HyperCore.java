@@ -17,20 +17,16 @@
 
 package org.hypernomicon.model;
 
-import static java.util.Collections.*;
-
-import static org.hypernomicon.util.Util.*;
-
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Iterator;
-import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.stream.Stream;
 
 import org.hypernomicon.model.Exceptions.HDB_InternalError;
 import org.hypernomicon.model.records.HDT_Record;
+import org.hypernomicon.util.IntOrderStatisticTree;
 
 final class HyperCore<HDT_DT extends HDT_Record>
 {
@@ -38,76 +34,60 @@ final class HyperCore<HDT_DT extends HDT_Record>
 //---------------------------------------------------------------------------
 //---------------------------------------------------------------------------
 
-  private final class KeyIDpair implements Comparable<KeyIDpair>, Cloneable
-  {
-    private final int id;
-    private final String key;
-
-    private KeyIDpair(int id, String key) { this.id = id; this.key = key; }
-    private int getID()                   { return id; }
-
-//---------------------------------------------------------------------------
-
-    @Override public int hashCode()
-    {
-      return 31 * (31 + id) + (key == null ? 0 : key.hashCode());
-    }
-
-//---------------------------------------------------------------------------
-
-    @Override @SuppressWarnings("unchecked") public KeyIDpair clone()
-    {
-      try { return (KeyIDpair) super.clone(); } catch (CloneNotSupportedException ex) { throw new RuntimeException(ex); }
-    }
-
-//---------------------------------------------------------------------------
-
-    @Override @SuppressWarnings("unchecked") public boolean equals(Object obj)
-    {
-      if (this == obj) return true;
-      if (obj == null) return false;
-      if (getClass() != obj.getClass()) return false;
-
-      KeyIDpair otherPair = (KeyIDpair)obj;
-      return (otherPair.id == id) && otherPair.key.equals(key);
-    }
-
-//---------------------------------------------------------------------------
-
-    @Override public int compareTo(KeyIDpair otherPair)
-    {
-      int result = key.compareTo(otherPair.key);
-      return result != 0 ? result : id - otherPair.id;
-    }
-  }
-
-//---------------------------------------------------------------------------
-//---------------------------------------------------------------------------
-
-  private final List<KeyIDpair> sortedKeys = new ArrayList<>();
-  private final List<Integer> sortedIDs = new ArrayList<>();
   private final Map<Integer, String> idToKey = new HashMap<>();
   private final Map<Integer, HDT_DT> idToRecord = new HashMap<>();
+  private final IntOrderStatisticTree sortedIDs = new IntOrderStatisticTree();
+
+  // IDs sorted by key, then by ID. An ID's key must not change in idToKey while the ID is in this tree.
+
+  private final IntOrderStatisticTree sortedKeys = new IntOrderStatisticTree((id1, id2) ->
+  {
+    int result = idToKey.get(id1).compareTo(idToKey.get(id2));
+    return result != 0 ? result : Integer.compare(id1, id2);
+  });
 
   int size()                   { return sortedIDs.size(); }
-  Stream<HDT_DT> stream()      { return sortedIDs.stream().map(idToRecord::get); }
+  Stream<HDT_DT> stream()      { return Arrays.stream(sortedIDs.toArray()).mapToObj(idToRecord::get); }
   String getKeyByID(int id)    { return idToKey.get(id); }
   int getIDbyIDNdx(int ndx)    { return sortedIDs.get(ndx); }
-  int getIDbyKeyNdx(int ndx)   { return sortedKeys.get(ndx).getID(); }
-  boolean containsID(int id)   { return sortedIDs.contains(id); }
+  int getIDbyKeyNdx(int ndx)   { return sortedKeys.get(ndx); }
+  boolean containsID(int id)   { return idToRecord.containsKey(id); }
   HDT_DT getRecordByID(int id) { return idToRecord.get(id); }
-  int getIDNdxByID(int id)     { return Math.max(-1, binarySearch(sortedIDs, id)); }
-  int getKeyNdxByID(int id)    { return Math.max(-1, binarySearch(sortedKeys, new KeyIDpair(id, idToKey.get(id)))); }
+  int getIDNdxByID(int id)     { return sortedIDs.indexOf(id); }
+  int getKeyNdxByID(int id)    { return idToKey.containsKey(id) ? sortedKeys.indexOf(id) : -1; }
 
 //---------------------------------------------------------------------------
 //---------------------------------------------------------------------------
 
   void clear()
   {
-    idToRecord.clear();
-    idToKey.clear();
     sortedIDs.clear();
     sortedKeys.clear();
+    idToRecord.clear();
+    idToKey.clear();
+  }
+
+//---------------------------------------------------------------------------
+//---------------------------------------------------------------------------
+
+  // Returns the lowest ID not less than fromID that isn't in use. The IDs that are in use from fromID
+  // onward are consecutive up to the first gap, so the gap can be found with a binary search.
+
+  int nextAbsentID(int fromID)
+  {
+    int startNdx = sortedIDs.countLessThan(fromID), low = 0, high = sortedIDs.size() - startNdx;
+
+    while (low < high)
+    {
+      int mid = (low + high) >>> 1;
+
+      if (sortedIDs.get(startNdx + mid) == fromID + mid)
+        low = mid + 1;
+      else
+        high = mid;
+    }
+
+    return fromID + low;
   }
 
 //---------------------------------------------------------------------------
@@ -150,11 +130,11 @@ final class HyperCore<HDT_DT extends HDT_Record>
       {
         it.remove();
 
-        sortedIDs.remove(getIDNdxByID(id));
+        sortedIDs.remove(id);
 
         if (idToKey.containsKey(id))
         {
-          sortedKeys.remove(getKeyNdxByID(id));
+          sortedKeys.remove(id);
           idToKey.remove(id);
         }
       }
@@ -170,7 +150,7 @@ final class HyperCore<HDT_DT extends HDT_Record>
 
   void add(int id, String key, HDT_DT record)
   {
-    addToSortedList(sortedIDs, id);
+    sortedIDs.add(id);
     setKey(id, key);
     idToRecord.put(id, record);
   }
@@ -180,9 +160,14 @@ final class HyperCore<HDT_DT extends HDT_Record>
 
   void remove(int id)
   {
-    sortedIDs.remove(getIDNdxByID(id));
-    sortedKeys.remove(getKeyNdxByID(id));
-    idToKey.remove(id);
+    sortedIDs.remove(id);
+
+    if (idToKey.containsKey(id))
+    {
+      sortedKeys.remove(id);
+      idToKey.remove(id);
+    }
+
     idToRecord.remove(id);
   }
 
@@ -197,11 +182,11 @@ final class HyperCore<HDT_DT extends HDT_Record>
     {
       if (oldKey.equals(newKey)) return;
 
-      sortedKeys.remove(getKeyNdxByID(id));
+      sortedKeys.remove(id);
     }
 
     idToKey.put(id, newKey);
-    addToSortedList(sortedKeys, new KeyIDpair(id, newKey));
+    sortedKeys.add(id);
   }
 
 //---------------------------------------------------------------------------
@@ -30,11 +30,17 @@ import static org.hypernomicon.model.relations.RelationSet.*;
 
 import static java.util.Collections.*;
 
+import java.io.BufferedWriter;
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStreamWriter;
 import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
 import java.security.InvalidAlgorithmParameterException;
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
@@ -47,7 +53,6 @@ import java.util.EnumMap;
 import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
@@ -55,24 +60,31 @@ import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Consumer;
+import java.util.function.Predicate;
 import java.util.prefs.BackingStoreException;
 import java.util.prefs.InvalidPreferencesFormatException;
 import java.util.prefs.Preferences;
 import java.util.stream.Collectors;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
 
 import static java.nio.charset.StandardCharsets.*;
+import static java.nio.file.StandardCopyOption.*;
 
 import javax.crypto.BadPaddingException;
 import javax.crypto.IllegalBlockSizeException;
 import javax.crypto.NoSuchPaddingException;
-import javax.xml.stream.XMLEventReader;
 import javax.xml.stream.XMLInputFactory;
 import javax.xml.stream.XMLStreamConstants;
 import javax.xml.stream.XMLStreamException;
-import javax.xml.stream.events.Attribute;
-import javax.xml.stream.events.StartElement;
-import javax.xml.stream.events.XMLEvent;
+import javax.xml.stream.XMLStreamReader;
 
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.lang3.mutable.MutableBoolean;
@@ -80,7 +92,7 @@ import org.json.simple.parser.ParseException;
 
 import com.google.common.collect.EnumBiMap;
 import com.google.common.collect.EnumHashBiMap;
-import com.google.common.collect.Lists;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Sets;
 
 import javafx.beans.property.ObjectProperty;
@@ -88,6 +100,7 @@ import javafx.beans.property.SimpleObjectProperty;
 
 import org.hypernomicon.FolderTreeWatcher;
 import org.hypernomicon.HyperTask;
+import org.hypernomicon.HyperTask.HyperThread;
 import org.hypernomicon.bib.BibCollection;
 import org.hypernomicon.bib.BibEntry;
 import org.hypernomicon.bib.LibraryWrapper;
@@ -107,6 +120,7 @@ import org.hypernomicon.util.BidiOneToManyMainTextMap;
 import org.hypernomicon.util.CryptoUtil;
 import org.hypernomicon.util.DesktopUtil;
 import org.hypernomicon.util.FilenameMap;
+import org.hypernomicon.util.MediaTypeCache;
 import org.hypernomicon.util.PopupDialog.DialogResult;
 import org.hypernomicon.util.VersionNumber;
 import org.hypernomicon.util.filePath.FilePath;
@@ -142,8 +156,12 @@ public final class HyperDB
   final private Map<HDT_RecordWithPath, Set<HDT_RecordWithConnector>> keyWorkIndex = new HashMap<>();
   final private BidiOneToManyMainTextMap displayedAtIndex = new BidiOneToManyMainTextMap();
   final private Map<String, HDT_Work> bibEntryKeyToWork = new HashMap<>();
+  final private EnumSet<RecordType> dirtyTypes = EnumSet.noneOf(RecordType.class);
+  final private int[] listingModCounts = new int[RecordType.values().length], listingLogStarts = new int[RecordType.values().length];
+  final private EnumMap<RecordType, List<Integer>> listingChangeLogs = new EnumMap<>(RecordType.class);
 
   final public FilenameMap<Set<HyperPath>> filenameMap = new FilenameMap<>();
+  final public FolderTrie folderTrie = new FolderTrie();
 
   public Preferences prefs;
   private Preferences appPrefs;
@@ -151,6 +169,8 @@ public final class HyperDB
   private FolderTreeWatcher folderTreeWatcher;
   private FilePath lockFilePath = null;
   private DialogResult deleteFileAnswer;
+  private XMLFileSnapshot.Writer snapshotWriter = null; // Only set while an XML file is being written
+  private boolean snapshotNesting = false;
   HyperTask task;
   long totalTaskCount, curTaskCount;
   private boolean alreadyShowedUpgradeMsg;
@@ -164,7 +184,29 @@ public final class HyperDB
                  viewTestingInProgress = false; // suppresses "view date" updating
 
 //---------------------------------------------------------------------------
-  @FunctionalInterface public interface RelationChangeHandler { void handle(HDT_Record subject, HDT_Record object, boolean affirm); }
+
+  public static final class RelationChange
+  {
+    public final HDT_Record subject, object;
+    public final boolean affirm;
+
+    public RelationChange(HDT_Record subject, HDT_Record object, boolean affirm)
+    {
+      this.subject = subject;
+      this.object = object;
+      this.affirm = affirm;
+    }
+  }
+
+  // Changes to relations are delivered on the FX thread in batches, in the order they happened
+
+  @FunctionalInterface public interface RelationChangeHandler
+  {
+    void handle(HDT_Record subject, HDT_Record object, boolean affirm);
+
+    default void handleBatch(List<RelationChange> changes) { changes.forEach(change -> handle(change.subject, change.object, change.affirm)); }
+  }
+
 //---------------------------------------------------------------------------
 
   public boolean isDeletionInProgress()                         { return deletionInProgress; }
@@ -186,6 +228,9 @@ public final class HyperDB
   public SearchKeyword getKeyByKeyword(String keyword)          { return searchKeys.getKeywordObjByKeywordStr(keyword); }
   public String getFirstActiveKeyWord(HDT_Record record)        { return searchKeys.getFirstActiveKeyword(record); }
   public List<SearchKeyword> getKeysByPrefix(String prefix)     { return searchKeys.getKeywordsByPrefix(prefix); }
+  KeywordAutomaton getKeywordAutomaton()                        { return searchKeys.getAutomaton(); }
+
+  public SearchKeyword findKeyByPrefix(String text, Predicate<SearchKeyword> condition) { return searchKeys.findKeywordByPrefix(text, condition); }
   public List<SearchKeyword> getKeysByRecord(HDT_Record record) { return searchKeys.getKeysByRecord(record); }
   public HDT_Work getWorkByBibEntryKey(String key)              { return bibEntryKeyToWork.get(key); }
   public boolean reindexingMentioners()                         { return mentionsIndex.isRebuilding(); }
@@ -206,6 +251,7 @@ public final class HyperDB
   public void replaceMainText(MainText oldMT, MainText newMT)                               { displayedAtIndex.replaceItem(oldMT, newMT); }
   public void rebuildMentions()                                                             { if (loaded) mentionsIndex.startRebuild(); }
   public void updateMentioner(HDT_Record record)                                            { if (loaded) mentionsIndex.updateMentioner(record); }
+  void reindexMentionersOf(Collection<SearchKeyword> keywords)                              { if (loaded) mentionsIndex.reindexMentionersOf(keywords); }
   public boolean waitUntilRebuildIsDone()                                                   { return mentionsIndex.waitUntilRebuildIsDone(); }
 
   public boolean firstMentionsSecond(HDT_Record mentioner, HDT_Record target, boolean descOnly, MutableBoolean choseNotToWait) {
@@ -306,6 +352,7 @@ public final class HyperDB
 
   public FilePath getRootPath  () { return rootFilePath; }
   public FilePath xmlPath      () { return rootFilePath.resolve(DEFAULT_XML_PATH); }
+  public FilePath snapshotPath () { return xmlPath(SNAPSHOT_FOLDER_NAME); }
 
   public FilePath booksPath    () { return booksFolder    .filePath(); }
   public FilePath papersPath   () { return papersFolder   .filePath(); }
@@ -317,6 +364,7 @@ public final class HyperDB
 
   public FilePath getRootPath  (String fileNameStr) { return rootFilePath.resolve(fileNameStr); }
   public FilePath xmlPath      (String fileNameStr) { return rootFilePath.resolve(DEFAULT_XML_PATH).resolve(fileNameStr); }
+  public FilePath snapshotPath (String fileNameStr) { return snapshotPath().resolve(fileNameStr); }
 
   public FilePath booksPath    (String fileNameStr) { return booksFolder    .filePath().resolve(fileNameStr); }
   public FilePath papersPath   (String fileNameStr) { return papersFolder   .filePath().resolve(fileNameStr); }
@@ -411,101 +459,280 @@ public final class HyperDB
 //---------------------------------------------------------------------------
 //---------------------------------------------------------------------------
 
-  private void finalizeXMLFile(List<StringBuilder> xmlList, List<String> filenameList, String fileName)
+  // Dirty record types are the ones whose XML file needs to be regenerated on the next save
+
+  public synchronized void markDirty(RecordType type)                    { dirtyTypes.add(type); }
+
+  private synchronized void markAllDirty()
+  {
+    dirtyTypes.addAll(datasets.keySet());
+    datasets.keySet().forEach(this::markListingChanged);
+  }
+
+//---------------------------------------------------------------------------
+//---------------------------------------------------------------------------
+
+  // The listing mod count of a type only goes up when something changes that is shown when records of that type
+  // are listed or searched for: records being created or deleted, or their names, sort keys, search keys, years,
+  // or authors changing. Caches of how records are listed use it so that other edits don't make them rebuild.
+  //
+  // When the change is to one record, its ID is logged so that caches can update just the entries for the records
+  // that changed. The log only goes back to the last change that wasn't tied to one record, and is kept short.
+
+  private static final int MAX_LISTING_LOG_SIZE = 1000;
+
+  public synchronized int getListingModCount(RecordType type)            { return listingModCounts[type.ordinal()]; }
+
+  public synchronized void markListingChanged(RecordType type)
+  {
+    int ndx = type.ordinal();
+
+    listingLogStarts[ndx] = ++listingModCounts[ndx];
+    listingChangeLogs.remove(type);
+  }
+
+//---------------------------------------------------------------------------
+//---------------------------------------------------------------------------
+
+  public synchronized void markListingChanged(HDT_Record record)
+  {
+    RecordType type = record.getType();
+    List<Integer> log = listingChangeLogs.computeIfAbsent(type, _type -> new ArrayList<>());
+
+    if ((record.getID() < 1) || (log.size() >= MAX_LISTING_LOG_SIZE))
+    {
+      markListingChanged(type);
+      return;
+    }
+
+    listingModCounts[type.ordinal()]++;
+    log.add(record.getID());
+  }
+
+//---------------------------------------------------------------------------
+//---------------------------------------------------------------------------
+
+  // Returns the IDs of the records of this type whose listings changed after the listing mod count was modCount,
+  // or null if that isn't known
+
+  public synchronized Set<Integer> getListingChangesSince(RecordType type, int modCount)
   {
-    xmlList.get(xmlList.size() - 1).append(System.lineSeparator() + "</records>");
-    filenameList.add(fileName);
-    xmlList.add(new StringBuilder());
+    int ndx = type.ordinal(), logStart = listingLogStarts[ndx];
+
+    if (modCount < logStart) return null;
+
+    List<Integer> log = listingChangeLogs.getOrDefault(type, new ArrayList<>());
+    return new HashSet<>(log.subList(Math.min(modCount - logStart, log.size()), log.size()));
   }
 
 //---------------------------------------------------------------------------
 //---------------------------------------------------------------------------
 
-  private void writeDatasetToXML(List<StringBuilder> xmlList, RecordType type) throws HDB_InternalError, TerminateTaskException
+  private synchronized void markClean(Collection<RecordType> types)      { dirtyTypes.removeAll(types); }
+  private synchronized boolean anyAreDirty(Collection<RecordType> types) { return types.stream().anyMatch(dirtyTypes::contains); }
+
+//---------------------------------------------------------------------------
+//---------------------------------------------------------------------------
+
+  // Key works and display items are written into the main text XML by ID, and the records holding them aren't linked to
+  // what they point to by any relation set, so every type that can hold a main text has to be written again
+
+  public void markConnectorTypesDirty() { datasets.keySet().stream().filter(RecordType::hasConnector).forEach(this::markDirty); }
+
+//---------------------------------------------------------------------------
+//---------------------------------------------------------------------------
+
+  // Use this when a change to the record would also change what is written in the XML of records that point to it,
+  // e.g., the name or ID. How those records are listed might change too, e.g., a work's listing includes its authors' names.
+
+  public void markDirtyWithReferencers(RecordType type)
   {
-    StringBuilder xml = xmlList.get(xmlList.size() - 1);
+    markDirty(type);
 
-    if (xml.length() == 0)
+    relationSets.values().forEach(relSet ->
     {
-      xml.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>" + System.lineSeparator() + System.lineSeparator())
-         .append("<records version=\"" + getVersionNumberSavingAs(appVersionToMaxRecordsXMLVersion) + "\" xmlns=\"org.hypernomicon\"")
+      if (relSet.getObjType() == type)
+      {
+        markDirty(relSet.getSubjType());
+        markListingChanged(relSet.getSubjType());
+      }
+
+      if (relSet.getSubjType() == type)
+      {
+        markDirty(relSet.getObjType());
+        markListingChanged(relSet.getObjType());
+      }
+    });
+  }
+
+//---------------------------------------------------------------------------
+//---------------------------------------------------------------------------
+
+  private int recordCountForSave(RecordType type)
+  {
+    int count = records(type).size();
+
+    return EnumSet.of(hdtDebate, hdtNote, hdtPersonGroup, hdtWorkLabel, hdtGlossary).contains(type) ? count - 1 : count;
+  }
+
+//---------------------------------------------------------------------------
+//---------------------------------------------------------------------------
 
-      //   .append(" xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\" xsi:schemaLocation=\"org.hypernomicon http://hypernomicon.org/records.xsd\"")
+  // The file's snapshot is written at the same time, from what the record states and items report as they are written
 
-         .append(">" + System.lineSeparator() + System.lineSeparator());
+  private void writeXMLFile(String fileName, List<RecordType> types) throws IOException, HDB_InternalError, TerminateTaskException
+  {
+    FilePath filePath = xmlPath(fileName), tempFilePath = xmlPath(fileName + ".tmp");
+    VersionNumber versionNumber = getVersionNumberSavingAs(appVersionToMaxRecordsXMLVersion);
+    CRC32 crc = new CRC32();
+
+    markClean(types); // Done before writing so that anything changed in the meantime gets written next time
+
+    try (XMLFileSnapshot.Writer fileSnapshotWriter = new XMLFileSnapshot.Writer(filePath))
+    {
+      snapshotWriter = fileSnapshotWriter;
+      snapshotWriter.writeHeader(versionNumber);
+
+      try (Writer writer = new BufferedWriter(new OutputStreamWriter(new CheckedOutputStream(new FileOutputStream(tempFilePath.toFile()), crc), UTF_8)))
+      {
+        writer.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>" + System.lineSeparator() + System.lineSeparator());
+        writer.write("<records version=\"" + versionNumber + "\" xmlns=\"org.hypernomicon\"");
+
+        //   writer.write(" xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\" xsi:schemaLocation=\"org.hypernomicon http://hypernomicon.org/records.xsd\"");
+
+        writer.write(">" + System.lineSeparator() + System.lineSeparator());
+
+        for (RecordType type : types)
+        {
+          datasets.get(type).writeToXML(writer);
+          curTaskCount += recordCountForSave(type);
+        }
+
+        writer.write(System.lineSeparator() + "</records>");
+      }
+
+      try
+      {
+        Files.move(tempFilePath.toPath(), filePath.toPath(), REPLACE_EXISTING, ATOMIC_MOVE);
+      }
+      catch (AtomicMoveNotSupportedException e)
+      {
+        Files.move(tempFilePath.toPath(), filePath.toPath(), REPLACE_EXISTING);
+      }
+
+      snapshotWriter.commit(filePath.toFile().length(), filePath.toFile().lastModified(), crc.getValue());
+    }
+    catch (IOException | HDB_InternalError | TerminateTaskException e)
+    {
+      types.forEach(this::markDirty);
+      tempFilePath.deleteReturnsBoolean(true);
+      throw e;
     }
+    finally
+    {
+      snapshotWriter = null;
+    }
+  }
 
-    datasets.get(type).writeToXML(xml);
+//---------------------------------------------------------------------------
+//---------------------------------------------------------------------------
 
-    curTaskCount += records(type).size();
+  // While an XML file is being written, the record states and offline items report what they write to it here,
+  // so that its snapshot can be written at the same time. Everything is converted to what the parser would read
+  // back out of the XML file.
 
-    if (EnumSet.of(hdtDebate, hdtNote, hdtPersonGroup, hdtWorkLabel, hdtGlossary).contains(type))
-      curTaskCount--;
+  public void snapshotRecord(RecordType type, int id, String sortKeyAttr, String searchKey, String listName)
+  {
+    if (snapshotWriter != null)
+      snapshotWriter.writeRecord(type, id, sortKeyAttr, searchKey, listName);
   }
 
 //---------------------------------------------------------------------------
+
+  public void snapshotDates(Instant creationDate, Instant modifiedDate, Instant viewDate)
+  {
+    if (snapshotWriter == null) return;
+
+    snapshotWriter.writeDate(tagCreationDate, parseIso8601offset(dateTimeToIso8601offset(creationDate)));
+    snapshotWriter.writeDate(tagModifiedDate, parseIso8601offset(dateTimeToIso8601offset(modifiedDate)));
+    snapshotWriter.writeDate(tagViewDate,     parseIso8601offset(dateTimeToIso8601offset(viewDate    )));
+  }
+
 //---------------------------------------------------------------------------
 
-  public boolean saveAllToDisk(HyperFavorites favorites)
+  // xmlContent is the already escaped text that was written between the item's start and end tags, not counting
+  // any nested tags. objType and objID are only written as attributes if they are set, and are then read back
+  // in the same way as in HDX_Element.read.
+
+  public void snapshotItem(Tag tag, String xmlContent, RecordType objType, int objID)
+  {
+    if (snapshotWriter == null) return;
+
+    RecordType parsedObjType = tagToObjType.getOrDefault(tag, hdtNone);
+
+    if ((parsedObjType == hdtAuxiliary) && (objType != hdtNone))
+      parsedObjType = objType;
+
+    int parsedObjID = (parsedObjType != hdtNone) && (objID > 0) ? objID : -1;
+    String text = XMLFileSnapshot.parsedText(xmlContent);
+
+    if (snapshotNesting)
+      snapshotWriter.writeNestedItem(tag, text, parsedObjType, parsedObjID);
+    else
+      snapshotWriter.writeItem(tag, text, parsedObjType, parsedObjID);
+  }
+
+//---------------------------------------------------------------------------
+
+  // Items reported while itemWriter runs are nested in the next item to be reported
+
+  public void snapshotNestedItems(Runnable itemWriter)
+  {
+    snapshotNesting = true;
+
+    try
+    {
+      itemWriter.run();
+    }
+    finally
+    {
+      snapshotNesting = false;
+    }
+  }
+
+//---------------------------------------------------------------------------
+//---------------------------------------------------------------------------
+
+  // If rewriteAll is true, every XML file is written whether or not its record types were marked dirty
+
+  public boolean saveAllToDisk(HyperFavorites favorites, boolean rewriteAll)
   {
     if (loaded == false) return false;
 
     if (bibLibraryIsLinked())
       bibLibrary.saveToDisk();
 
-    List<String> filenameList = new ArrayList<>();
-    List<StringBuilder> xmlList = Lists.newArrayList(new StringBuilder());
+    MediaTypeCache.save();
 
     task = new HyperTask("SaveAllToDisk") { @Override protected Boolean call() throws Exception
     {
       updateMessage("Saving to XML files...");
 
-      curTaskCount = 0; totalTaskCount = 0;
-      accessors.forEach((type, accessor) ->
-      {
-        switch (type)
-        {
-          case hdtNone :
-            break;
-
-          case hdtDebate : case hdtNote : case hdtPersonGroup : case hdtWorkLabel : case hdtGlossary :
-            totalTaskCount += accessor.size() - 1;
-            break;
+      Map<String, List<RecordType>> filesToWrite = new LinkedHashMap<>();
 
-          default :
-            totalTaskCount += accessor.size();
-            break;
-        }
+      xmlFileNameToTypes.forEach((fileName, types) ->
+      {
+        if (rewriteAll || anyAreDirty(types) || (xmlPath(fileName).exists() == false))
+          filesToWrite.put(fileName, types);
       });
 
+      curTaskCount = 0; totalTaskCount = 0;
+      filesToWrite.values().forEach(types -> types.forEach(type -> totalTaskCount += recordCountForSave(type)));
+
       try
       {
-        writeDatasetToXML(xmlList, hdtPersonStatus);    writeDatasetToXML(xmlList, hdtRank);            writeDatasetToXML(xmlList, hdtField);
-        writeDatasetToXML(xmlList, hdtSubfield);        writeDatasetToXML(xmlList, hdtWorkType);        writeDatasetToXML(xmlList, hdtFileType);
-        writeDatasetToXML(xmlList, hdtCountry);         writeDatasetToXML(xmlList, hdtRegion);          writeDatasetToXML(xmlList, hdtPositionVerdict);
-        writeDatasetToXML(xmlList, hdtArgumentVerdict); writeDatasetToXML(xmlList, hdtInstitutionType); writeDatasetToXML(xmlList, hdtPersonGroup);
-
-                                                        finalizeXMLFile(xmlList, filenameList, OTHER_FILE_NAME);
-
-        writeDatasetToXML(xmlList, hdtPerson);          finalizeXMLFile(xmlList, filenameList, PERSON_FILE_NAME);
-        writeDatasetToXML(xmlList, hdtInstitution);     finalizeXMLFile(xmlList, filenameList, INSTITUTION_FILE_NAME);
-        writeDatasetToXML(xmlList, hdtInvestigation);   finalizeXMLFile(xmlList, filenameList, INVESTIGATION_FILE_NAME);
-        writeDatasetToXML(xmlList, hdtDebate);          finalizeXMLFile(xmlList, filenameList, DEBATE_FILE_NAME);
-        writeDatasetToXML(xmlList, hdtArgument);        finalizeXMLFile(xmlList, filenameList, ARGUMENT_FILE_NAME);
-        writeDatasetToXML(xmlList, hdtPosition);        finalizeXMLFile(xmlList, filenameList, POSITION_FILE_NAME);
-        writeDatasetToXML(xmlList, hdtGlossary);
-        writeDatasetToXML(xmlList, hdtTerm);
-        writeDatasetToXML(xmlList, hdtConcept);         finalizeXMLFile(xmlList, filenameList, TERM_FILE_NAME);
-        writeDatasetToXML(xmlList, hdtFolder);
-        writeDatasetToXML(xmlList, hdtMiscFile);
-        writeDatasetToXML(xmlList, hdtWorkFile);        finalizeXMLFile(xmlList, filenameList, FILE_FILE_NAME);
-        writeDatasetToXML(xmlList, hdtWorkLabel);
-        writeDatasetToXML(xmlList, hdtWork);            finalizeXMLFile(xmlList, filenameList, WORK_FILE_NAME);
-        writeDatasetToXML(xmlList, hdtNote);            finalizeXMLFile(xmlList, filenameList, NOTE_FILE_NAME);
-        writeDatasetToXML(xmlList, hdtHub);             finalizeXMLFile(xmlList, filenameList, HUB_FILE_NAME);
-
-        for (int ndx = 0; ndx < filenameList.size(); ndx++)
-          saveStringBuilderToFile(xmlList.get(ndx), xmlPath(filenameList.get(ndx)));
+        for (Entry<String, List<RecordType>> entry : filesToWrite.entrySet())
+          writeXMLFile(entry.getKey(), entry.getValue());
       }
       catch (IOException | HDB_InternalError e)
       {
@@ -599,6 +826,8 @@ public final class HyperDB
 
     alreadyShowedUpgradeMsg = false;
 
+    XMLFileSnapshot.prepareFolder();
+
     task = new HyperTask("LoadDatabase") { @Override protected Boolean call() throws Exception
     {
       updateMessage("Loading database from folder " + rootFilePath + "...");
@@ -608,7 +837,9 @@ public final class HyperDB
 
       for (FilePath filePath : xmlFileList) totalTaskCount += filePath.size();
 
-      for (FilePath filePath : xmlFileList) loadFromXML(filePath);
+      totalTaskCount *= 2; // Each file is counted once for parsing and once for record creation
+
+      loadFromXML(xmlFileList);
 
       return true;
     }};
@@ -635,6 +866,11 @@ public final class HyperDB
 
       bringAllRecordsOnline();
 
+      if (alreadyShowedUpgradeMsg) // Record XML was in an older format, so all files need to be rewritten
+        markAllDirty();
+      else
+        markClean(datasets.keySet());
+
       return true;
     }};
 
@@ -1066,31 +1302,27 @@ public final class HyperDB
 
   private static final String recordsTag = "records", versionAttr = "version";
 
-  private VersionNumber getVersionNumberFromXML(XMLEventReader eventReader) throws XMLStreamException
+  private VersionNumber getVersionNumberFromXML(XMLStreamReader reader) throws XMLStreamException
   {
-    while (eventReader.hasNext())
-    {
-      XMLEvent event = eventReader.nextEvent();
+    String recordTagStr = tagToStr.get(tagRecord);
 
-      if (event.isStartElement() == false)
+    while (reader.hasNext())
+    {
+      if (reader.next() != XMLStreamConstants.START_ELEMENT)
         continue;
 
-      StartElement startElement = event.asStartElement();
+      String localName = reader.getLocalName();
 
-      if (startElement.getName().getLocalPart().equals(tagToStr.get(tagRecord)))
+      if (localName.equals(recordTagStr))
         return null;
 
-      if (startElement.getName().getLocalPart().equals(recordsTag) == false)
+      if (localName.equals(recordsTag) == false)
         continue;
 
-      Iterator<Attribute> attributes = startElement.getAttributes();
-
-      while (attributes.hasNext())
+      for (int ndx = 0; ndx < reader.getAttributeCount(); ndx++)
       {
-        Attribute attribute = attributes.next();
-
-        if (attribute.getName().toString().equals(versionAttr))
-          return new VersionNumber(attribute.getValue());
+        if (reader.getAttributeLocalName(ndx).equals(versionAttr))
+          return new VersionNumber(reader.getAttributeValue(ndx));
       }
     }
 
@@ -1100,48 +1332,47 @@ public final class HyperDB
 //---------------------------------------------------------------------------
 //---------------------------------------------------------------------------
 
-  private RecordState getNextRecordFromXML(XMLEventReader eventReader) throws XMLStreamException, HyperDataException
+  private RecordState getNextRecordFromXML(XMLStreamReader reader, XMLFileSnapshot.Writer snapshotWriter) throws XMLStreamException, HyperDataException
   {
-    while (eventReader.hasNext())
-    {
-      XMLEvent event = eventReader.nextEvent();
+    String recordTagStr = tagToStr.get(tagRecord);
 
-      if (event.isStartElement() == false)
+    while (reader.hasNext())
+    {
+      if (reader.next() != XMLStreamConstants.START_ELEMENT)
         continue;
 
-      StartElement startElement = event.asStartElement();
-      if (startElement.getName().getLocalPart().equals(tagToStr.get(tagRecord)) == false)
+      if (reader.getLocalName().equals(recordTagStr) == false)
         continue;
 
       int id = -1;
       RecordType type = hdtNone;
       String sortKeyAttr = "", listName = "", searchKey = "";
 
-      Iterator<Attribute> attributes = startElement.getAttributes();
-
-      while (attributes.hasNext())
+      for (int ndx = 0; ndx < reader.getAttributeCount(); ndx++)
       {
-        Attribute attribute = attributes.next();
-        Tag tag = tagToStr.inverse().get(attribute.getName().toString());
+        Tag tag = tagToStr.inverse().get(reader.getAttributeLocalName(ndx));
+        String value = reader.getAttributeValue(ndx);
 
         switch (tag)
         {
-          case tagID        : id = parseInt(attribute.getValue(), -1); break;
+          case tagID        : id = parseInt(value, -1); break;
           case tagType      :
 
-            type = typeToTagStr.inverse().getOrDefault(attribute.getValue(), hdtNone);
+            type = typeToTagStr.inverse().getOrDefault(value, hdtNone);
             if (type == hdtNone)
-              throw new HyperDataException("Invalid record type: " + attribute.getValue());
+              throw new HyperDataException("Invalid record type: " + value);
 
             break;
 
-          case tagSortKey   : sortKeyAttr = attribute.getValue(); break;
-          case tagSearchKey : searchKey   = attribute.getValue(); break;
-          case tagListName  : listName    = attribute.getValue(); break;
+          case tagSortKey   : sortKeyAttr = value; break;
+          case tagSearchKey : searchKey   = value; break;
+          case tagListName  : listName    = value; break;
           default           : break;
         }
       }
 
+      snapshotWriter.writeRecord(type, id, sortKeyAttr, searchKey, listName);
+
       RecordState xmlRecord = new RecordState(type, id, sortKeyAttr, "", searchKey, listName);
       xmlRecord.stored = true;
       return xmlRecord;
@@ -1183,50 +1414,54 @@ public final class HyperDB
 //---------------------------------------------------------------------------
 //---------------------------------------------------------------------------
 
+  // One instance is reused for every element read by a given parsing thread
+
   private class HDX_Element
   {
-    private final Tag tag;
+    private Tag tag;
     private int objID;
     private RecordType objType;
 
   //---------------------------------------------------------------------------
 
-    private HDX_Element(StartElement startElement, RecordState xmlRecord) throws InvalidItemException
+    private void read(XMLStreamReader reader, RecordState xmlRecord) throws InvalidItemException
     {
-      tag = tagToStr.inverse().getOrDefault(startElement.getName().getLocalPart(), tagNone);
+      String localName = reader.getLocalName();
+
+      tag = tagToStr.inverse().getOrDefault(localName, tagNone);
 
       if (tag == tagNone)
-        throw new InvalidItemException(xmlRecord.id, xmlRecord.type, startElement.getName().getLocalPart());
+        throw new InvalidItemException(xmlRecord.id, xmlRecord.type, localName);
 
       objType = tagToObjType.getOrDefault(tag, hdtNone);
       objID = -1;
 
-      startElement.getAttributes().forEachRemaining(attribute ->
+      for (int ndx = 0; ndx < reader.getAttributeCount(); ndx++)
       {
-        switch (attribute.getName().toString())
+        switch (reader.getAttributeLocalName(ndx))
         {
           case "id" :
             if (objType != hdtNone)
-              objID = parseInt(attribute.getValue(), -1);
+              objID = parseInt(reader.getAttributeValue(ndx), -1);
             break;
 
           case "type" :
             if (objType == hdtAuxiliary) // this represents that the object type is not given away by the
                                          // tag name, and should be obtained from the "type" attribute
-              objType = typeToTagStr.inverse().getOrDefault(attribute.getValue(), hdtNone);
+              objType = typeToTagStr.inverse().getOrDefault(reader.getAttributeValue(ndx), hdtNone);
             break;
 
           default:
             break;
         }
-      });
+      }
     }
   }
 
 //---------------------------------------------------------------------------
 //---------------------------------------------------------------------------
 
-  private void checkVersion(VersionNumber versionNumber, String dataName,
+  private synchronized void checkVersion(VersionNumber versionNumber, String dataName,
                             Map<VersionNumber, VersionNumber> appVersionToMinVersion,
                             Map<VersionNumber, VersionNumber> appVersionToMaxVersion) throws HyperDataException
   {
@@ -1280,55 +1515,245 @@ public final class HyperDB
 //---------------------------------------------------------------------------
 //---------------------------------------------------------------------------
 
-  private void loadFromXML(FilePath filePath) throws HyperDataException, TerminateTaskException
+  // Files are parsed concurrently, but records are created from the parsed states one file at a time, in list order.
+  // Progress is kept in bytesDone, which counts each file's size once as it is parsed and once more when its
+  // records have been created, so that the parsing threads and this one can all report it.
+
+  private void loadFromXML(List<FilePath> xmlFileList) throws HyperDataException, TerminateTaskException
+  {
+    int threadCount = Math.max(1, Math.min(xmlFileList.size(), Runtime.getRuntime().availableProcessors()));
+
+    ExecutorService pool = Executors.newFixedThreadPool(threadCount, runnable ->
+    {
+      HyperThread thread = new HyperThread(runnable, "XMLLoader");
+      thread.setDaemon(true);
+      return thread;
+    });
+
+    AtomicLong bytesDone = new AtomicLong(0);
+
+    try
+    {
+      List<Future<List<RecordState>>> futures = new ArrayList<>();
+
+      for (FilePath filePath : xmlFileList)
+        futures.add(pool.submit(() -> readRecordsFromFile(filePath, bytesDone)));
+
+      for (int ndx = 0; ndx < xmlFileList.size(); ndx++)
+      {
+        FilePath filePath = xmlFileList.get(ndx);
+
+        for (RecordState xmlRecord : getParsedRecords(futures.get(ndx), filePath))
+        {
+          if (task.isCancelled()) throw new TerminateTaskException();
+
+          try
+          {
+            if (isUnstoredRecord(xmlRecord.id, xmlRecord.type) == false)
+              createNewRecordFromState(xmlRecord, false);
+          }
+          catch (RelationCycleException | HDB_InternalError | SearchKeyException e) { noOp(); }
+        }
+
+        task.updateProgress(bytesDone.addAndGet(filePath.size()), totalTaskCount);
+      }
+    }
+    catch (DuplicateRecordException e)
+    {
+      throw new HyperDataException(e);
+    }
+    catch (HubChangedException e)
+    {
+      throw new HyperDataException("Internal error #42837", e);
+    }
+    finally
+    {
+      pool.shutdownNow();
+    }
+  }
+
+//---------------------------------------------------------------------------
+//---------------------------------------------------------------------------
+
+  private List<RecordState> getParsedRecords(Future<List<RecordState>> future, FilePath filePath) throws HyperDataException, TerminateTaskException
+  {
+    try
+    {
+      return future.get();
+    }
+    catch (InterruptedException e)
+    {
+      throw new TerminateTaskException();
+    }
+    catch (ExecutionException e)
+    {
+      Throwable cause = e.getCause();
+
+      if (cause instanceof HyperDataException)     throw (HyperDataException) cause;
+      if (cause instanceof TerminateTaskException) throw (TerminateTaskException) cause;
+
+      throw new HyperDataException("File: " + filePath + System.lineSeparator() + cause.getMessage(), cause);
+    }
+  }
+
+//---------------------------------------------------------------------------
+//---------------------------------------------------------------------------
+
+  // Uses the binary snapshot of the file if it is up to date; otherwise parses the XML and writes a new snapshot
+
+  private List<RecordState> readRecordsFromFile(FilePath filePath, AtomicLong bytesDone) throws HyperDataException, TerminateTaskException
+  {
+    XMLFileSnapshot.Reader snapshotReader = XMLFileSnapshot.Reader.openIfFresh(filePath);
+
+    if (snapshotReader != null)
+    {
+      try (XMLFileSnapshot.Reader reader = snapshotReader)
+      {
+        return readRecordsFromSnapshot(reader, filePath, bytesDone);
+      }
+      catch (IOException | InvalidItemException | RuntimeException e)
+      {
+        noOp(); // Fall back to the XML file
+      }
+    }
+
+    return readRecordsFromXML(filePath, bytesDone);
+  }
+
+//---------------------------------------------------------------------------
+//---------------------------------------------------------------------------
+
+  private List<RecordState> readRecordsFromSnapshot(XMLFileSnapshot.Reader reader, FilePath filePath, AtomicLong bytesDone) throws IOException, HyperDataException, TerminateTaskException, InvalidItemException
   {
-    try (InputStream in = new FileInputStream(filePath.toFile()))
+    checkVersion(reader.getRecordsVersion(), "this XML record data", appVersionToMinRecordsXMLVersion, appVersionToMaxRecordsXMLVersion);
+
+    List<RecordState> xmlRecords = new ArrayList<>();
+    RecordState xmlRecord = null;
+    int entryKind;
+
+    while ((entryKind = reader.next()) != XMLFileSnapshot.ENTRY_END)
     {
-      XMLEventReader eventReader = XMLInputFactory.newInstance().createXMLEventReader(in);
+      switch (entryKind)
+      {
+        case XMLFileSnapshot.ENTRY_RECORD :
+
+          if (task.isCancelled()) throw new TerminateTaskException();
+
+          xmlRecord = new RecordState(reader.type, reader.id, reader.sortKeyAttr, "", reader.searchKey, reader.listName);
+          xmlRecord.stored = true;
+          xmlRecords.add(xmlRecord);
+          break;
+
+        case XMLFileSnapshot.ENTRY_DATE :
+
+          switch (reader.tag)
+          {
+            case tagCreationDate : xmlRecord.creationDate = reader.instant; break;
+            case tagModifiedDate : xmlRecord.modifiedDate = reader.instant; break;
+            default              : xmlRecord.viewDate =     reader.instant; break;
+          }
+
+          break;
 
-      VersionNumber versionNumber = getVersionNumberFromXML(eventReader);
+        case XMLFileSnapshot.ENTRY_ITEM :
+
+          Tag tag = reader.tag;
+          String text = reader.text;
+          RecordType objType = reader.objType;
+          int objID = reader.objID, nestedCount = reader.nestedCount;
+          Map<Tag, HDI_OfflineBase> nestedItems = null;
+
+          if (nestedCount > 0)
+          {
+            nestedItems = new LinkedHashMap<>();
+            initNestedItems(xmlRecord, nestedItems, getRelation(xmlRecord.type, objType));
+
+            for (int ndx = 0; ndx < nestedCount; ndx++)
+            {
+              reader.readNestedItem();
+
+              HDI_OfflineBase item = nestedItems.get(reader.tag);
+
+              if (item == null) throw new InvalidItemException(xmlRecord.id, xmlRecord.type, "(nested) " + getTagStr(reader.tag));
+
+              item.setFromXml(reader.tag, reader.text, reader.objType, reader.objID, null);
+            }
+          }
+
+          xmlRecord.loadItemFromXML(tag, text, objType, objID, nestedItems);
+          break;
+      }
+    }
+
+    task.updateProgress(bytesDone.addAndGet(filePath.size()), totalTaskCount);
+
+    return xmlRecords;
+  }
+
+//---------------------------------------------------------------------------
+//---------------------------------------------------------------------------
+
+  // Does not create any records, so this can run on a worker thread
+
+  private List<RecordState> readRecordsFromXML(FilePath filePath, AtomicLong bytesDone) throws HyperDataException, TerminateTaskException
+  {
+    List<RecordState> xmlRecords = new ArrayList<>();
+    StringBuilder nodeText = new StringBuilder(), nestedNodeText = new StringBuilder();
+    HDX_Element hdxElement = new HDX_Element();
+    String recordTagStr = tagToStr.get(tagRecord);
+    File xmlFile = filePath.toFile();
+    long fileOffset = 0, xmlSize = xmlFile.length(), xmlModTime = xmlFile.lastModified();
+    CRC32 crc = new CRC32();
+
+    try (InputStream in = new CheckedInputStream(new FileInputStream(xmlFile), crc);
+         XMLFileSnapshot.Writer snapshotWriter = new XMLFileSnapshot.Writer(filePath))
+    {
+      XMLStreamReader reader = XMLInputFactory.newInstance().createXMLStreamReader(in);
+
+      VersionNumber versionNumber = getVersionNumberFromXML(reader);
 
       if (versionNumber == null)
         throw new HyperDataException("XML record data version number not found.");
 
       checkVersion(versionNumber, "this XML record data", appVersionToMinRecordsXMLVersion, appVersionToMaxRecordsXMLVersion);
 
-      RecordState xmlRecord = getNextRecordFromXML(eventReader);
+      snapshotWriter.writeHeader(versionNumber);
+
+      RecordState xmlRecord = getNextRecordFromXML(reader, snapshotWriter);
 
       while (xmlRecord != null)
       {
-        boolean notDoneReadingRecord = eventReader.hasNext(), noInnerTags = true, wasAlreadyInStartTag = false;
+        boolean notDoneReadingRecord = reader.hasNext(), noInnerTags = true, wasAlreadyInStartTag = false;
         Map<Tag, HDI_OfflineBase> nestedItems = null;
         RecordType objType = hdtNone;
-        XMLEvent event = null;
-        String nodeText = "";
         Tag tag = tagNone;
         int objID = -1;
 
+        nodeText.setLength(0);
+
         while (notDoneReadingRecord)
         {
           if (task.isCancelled()) throw new TerminateTaskException();
 
-          event = eventReader.nextEvent();
-          switch (event.getEventType())
+          switch (reader.next())
           {
             case XMLStreamConstants.START_ELEMENT :
 
-              HDX_Element hdxElement = new HDX_Element(event.asStartElement(), xmlRecord);
+              hdxElement.read(reader, xmlRecord);
 
               if (wasAlreadyInStartTag)
               {
                 if (nestedItems == null)
                   nestedItems = new LinkedHashMap<>();
 
-                readNestedItem(xmlRecord, nestedItems, getRelation(xmlRecord.type, objType), hdxElement, eventReader);
+                readNestedItem(xmlRecord, nestedItems, getRelation(xmlRecord.type, objType), hdxElement, reader, nestedNodeText, snapshotWriter);
               }
               else
               {
                 objID = hdxElement.objID;
                 objType = hdxElement.objType;
                 tag = hdxElement.tag;
-                nodeText = "";
+                nodeText.setLength(0);
                 noInnerTags = false;
                 nestedItems = null;
               }
@@ -1339,7 +1764,7 @@ public final class HyperDB
             case XMLStreamConstants.END_ELEMENT :
 
               wasAlreadyInStartTag = false;
-              if (event.asEndElement().getName().getLocalPart().equals("record"))
+              if (reader.getLocalName().equals(recordTagStr))
                 notDoneReadingRecord = false;
               else
               {
@@ -1347,11 +1772,13 @@ public final class HyperDB
                 {
                   switch (tag)
                   {
-                    case tagCreationDate : xmlRecord.creationDate = parseIso8601offset(nodeText); break;
-                    case tagModifiedDate : xmlRecord.modifiedDate = parseIso8601offset(nodeText); break;
-                    case tagViewDate     : xmlRecord.viewDate =     parseIso8601offset(nodeText); break;
+                    case tagCreationDate : xmlRecord.creationDate = parseIso8601offset(nodeText.toString()); snapshotWriter.writeDate(tag, xmlRecord.creationDate); break;
+                    case tagModifiedDate : xmlRecord.modifiedDate = parseIso8601offset(nodeText.toString()); snapshotWriter.writeDate(tag, xmlRecord.modifiedDate); break;
+                    case tagViewDate     : xmlRecord.viewDate =     parseIso8601offset(nodeText.toString()); snapshotWriter.writeDate(tag, xmlRecord.viewDate);     break;
 
-                    default              : xmlRecord.loadItemFromXML(tag, nodeText, objType, objID, nestedItems);
+                    default              :
+                      snapshotWriter.writeItem(tag, nodeText.toString(), objType, objID);
+                      xmlRecord.loadItemFromXML(tag, nodeText.toString(), objType, objID, nestedItems);
                   }
                 }
                 catch (DateTimeParseException e)
@@ -1360,38 +1787,46 @@ public final class HyperDB
                 }
 
                 tag = tagNone;
-                nodeText = "";
+                nodeText.setLength(0);
                 objType = hdtNone;
                 objID = -1;
               }
 
               break;
 
-            case XMLStreamConstants.CHARACTERS   : nodeText = nodeText + event.asCharacters().getData(); break;
+            case XMLStreamConstants.CHARACTERS   : nodeText.append(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength()); break;
             case XMLStreamConstants.END_DOCUMENT : notDoneReadingRecord = false; break;
             default                              : break;
           }
         }
 
         if (noInnerTags)
-          xmlRecord.loadItemFromXML(tagNone, nodeText, hdtNone, -1, null);
-
-        try
         {
-          if (isUnstoredRecord(xmlRecord.id, xmlRecord.type) == false)
-            createNewRecordFromState(xmlRecord, false);
+          snapshotWriter.writeItem(tagNone, nodeText.toString(), hdtNone, -1);
+          xmlRecord.loadItemFromXML(tagNone, nodeText.toString(), hdtNone, -1, null);
         }
-        catch (RelationCycleException | HDB_InternalError | SearchKeyException e) { noOp(); }
 
-        if (event != null)
-          task.updateProgress(curTaskCount + event.getLocation().getCharacterOffset(), totalTaskCount);
+        xmlRecords.add(xmlRecord);
 
-        xmlRecord = getNextRecordFromXML(eventReader);
+        long newOffset = reader.getLocation().getCharacterOffset();
+        task.updateProgress(bytesDone.addAndGet(newOffset - fileOffset), totalTaskCount);
+        fileOffset = newOffset;
+
+        xmlRecord = getNextRecordFromXML(reader, snapshotWriter);
       }
 
-      curTaskCount += filePath.size();
+      reader.close();
+
+      long xmlChecksum = XMLFileSnapshot.checksum(in, crc);
+
+      // Only keep the snapshot if the file didn't change while it was being read
+
+      if ((xmlFile.length() == xmlSize) && (xmlFile.lastModified() == xmlModTime))
+        snapshotWriter.commit(xmlSize, xmlModTime, xmlChecksum);
+
+      bytesDone.addAndGet(filePath.size() - fileOffset);
     }
-    catch (IOException | DuplicateRecordException | InvalidItemException e)
+    catch (IOException | InvalidItemException e)
     {
       throw new HyperDataException(e);
     }
@@ -1399,10 +1834,8 @@ public final class HyperDB
     {
       throw new HyperDataException("File: " + filePath + System.lineSeparator() + e.getMessage(), e);
     }
-    catch (HubChangedException e)
-    {
-      throw new HyperDataException("Internal error #42837", e);
-    }
+
+    return xmlRecords;
   }
 
 //---------------------------------------------------------------------------
@@ -1436,19 +1869,18 @@ public final class HyperDB
 //---------------------------------------------------------------------------
 //---------------------------------------------------------------------------
 
-  private void readNestedItem(RecordState xmlRecord, Map<Tag, HDI_OfflineBase> nestedItems, RelationType relationType, HDX_Element hdxElement, XMLEventReader eventReader) throws XMLStreamException, HyperDataException, InvalidItemException
+  private void readNestedItem(RecordState xmlRecord, Map<Tag, HDI_OfflineBase> nestedItems, RelationType relationType, HDX_Element hdxElement,
+                              XMLStreamReader reader, StringBuilder nodeText, XMLFileSnapshot.Writer snapshotWriter) throws XMLStreamException, HyperDataException, InvalidItemException
   {
-    boolean notDone = eventReader.hasNext();
-    String nodeText = "";
+    boolean notDone = reader.hasNext();
+    nodeText.setLength(0);
 
     if (nestedItems.isEmpty())
       initNestedItems(xmlRecord, nestedItems, relationType);
 
     while (notDone)
     {
-      XMLEvent event = eventReader.nextEvent();
-
-      switch (event.getEventType())
+      switch (reader.next())
       {
         case XMLStreamConstants.START_ELEMENT :
 
@@ -1462,7 +1894,7 @@ public final class HyperDB
 
         case XMLStreamConstants.CHARACTERS :
 
-          nodeText = nodeText + event.asCharacters().getData();
+          nodeText.append(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
           break;
 
         case XMLStreamConstants.END_DOCUMENT :
@@ -1479,7 +1911,8 @@ public final class HyperDB
 
     if (item == null) throw new InvalidItemException(xmlRecord.id, xmlRecord.type, "(nested) " + getTagStr(hdxElement.tag));
 
-    item.setFromXml(hdxElement.tag, nodeText, hdxElement.objType, hdxElement.objID, null);
+    snapshotWriter.writeNestedItem(hdxElement.tag, nodeText.toString(), hdxElement.objType, hdxElement.objID);
+    item.setFromXml(hdxElement.tag, nodeText.toString(), hdxElement.objType, hdxElement.objID, null);
   }
 
 //---------------------------------------------------------------------------
@@ -1577,6 +2010,9 @@ public final class HyperDB
 
     folderTreeWatcher.stop();
 
+    if (loaded)
+      MediaTypeCache.save();
+
     if (FilePath.isEmpty(lockFilePath) == false)
     {
       lockFilePath.deletePromptOnFail(true);
@@ -1590,6 +2026,7 @@ public final class HyperDB
 
     initialNavList   .clear();
     filenameMap      .clear();
+    folderTrie       .clear();
     keyWorkIndex     .clear();
     displayedAtIndex .clear();
     bibEntryKeyToWork.clear();
@@ -1696,6 +2133,7 @@ public final class HyperDB
     try { resolvePointers(); }
     catch (HDB_InternalError e) { return falseWithErrorMessage(e.getMessage()); }
 
+    markAllDirty();
     loaded = true;
 
     return true;
@@ -2137,6 +2575,7 @@ public final class HyperDB
   private static final String
 
     LOCK_FILE_NAME = "dblock.dat",
+    SNAPSHOT_FOLDER_NAME = ".snapshots",
     REQUEST_MSG_FILE_NAME = "request_message.dat",
     RESPONSE_MSG_FILE_NAME = "response_message.dat",
     OTHER_FILE_NAME = "Other.xml",
@@ -2152,6 +2591,26 @@ public final class HyperDB
     NOTE_FILE_NAME = "Notes.xml",
     HUB_FILE_NAME = "Hubs.xml";
 
+  private static final ImmutableMap<String, List<RecordType>> xmlFileNameToTypes = ImmutableMap.<String, List<RecordType>>builder()
+
+    .put(OTHER_FILE_NAME        , List.of(hdtPersonStatus   , hdtRank           , hdtField          , hdtSubfield       , hdtWorkType   , hdtFileType,
+                                          hdtCountry        , hdtRegion         , hdtPositionVerdict, hdtArgumentVerdict, hdtInstitutionType, hdtPersonGroup))
+    .put(PERSON_FILE_NAME       , List.of(hdtPerson))
+    .put(INSTITUTION_FILE_NAME  , List.of(hdtInstitution))
+    .put(INVESTIGATION_FILE_NAME, List.of(hdtInvestigation))
+    .put(DEBATE_FILE_NAME       , List.of(hdtDebate))
+    .put(ARGUMENT_FILE_NAME     , List.of(hdtArgument))
+    .put(POSITION_FILE_NAME     , List.of(hdtPosition))
+    .put(TERM_FILE_NAME         , List.of(hdtGlossary, hdtTerm, hdtConcept))
+    .put(FILE_FILE_NAME         , List.of(hdtFolder, hdtMiscFile, hdtWorkFile))
+    .put(WORK_FILE_NAME         , List.of(hdtWorkLabel, hdtWork))
+    .put(NOTE_FILE_NAME         , List.of(hdtNote))
+    .put(HUB_FILE_NAME          , List.of(hdtHub))
+
+    .build();
+
+//---------------------------------------------------------------------------
+
   public static enum Tag
   {
     tagNone,           tagPerson,       tagPersonStatus, tagInstitution,     tagInstitutionType, tagRegion,         tagCountry,      tagRank,
@@ -26,6 +26,8 @@ import org.hypernomicon.model.HyperDB.Tag;
 import org.hypernomicon.model.records.*;
 import org.hypernomicon.model.relations.RelationSet;
 
+import java.io.IOException;
+import java.io.Writer;
 import java.lang.reflect.InvocationTargetException;
 import java.time.Instant;
 import java.util.ArrayList;
@@ -118,7 +120,7 @@ public final class HyperDataset<HDT_DT extends HDT_Record>
   // This should ONLY ever be called by HDT_RecordBase.updateSortKey!!!
   public void updateSortKey(String newKey, int id) { core.setKey(id, newKey); }
 
-  int getNextID()                                  { int id = 0; while (true) if (idAvailable(++id)) return id; }
+  int getNextID()                                  { return nextAvailableID(1); }
   HDI_Schema getSchema(Tag tag)                    { return tagToSchema.get(tag); }
   Collection<HDI_Schema> getSchemas()              { return tagToSchema.values(); }
   Set<Tag> getTags()                               { return tagToSchema.keySet(); }
@@ -129,6 +131,19 @@ public final class HyperDataset<HDT_DT extends HDT_Record>
   public void changeRecordID(int oldID, int newID) { core.changeRecordID(oldID, newID); }
   public String getKeyByID(int id)                 { return core.getKeyByID(id); }
 
+//---------------------------------------------------------------------------
+//---------------------------------------------------------------------------
+
+  private int nextAvailableID(int id)
+  {
+    id = core.nextAbsentID(id);
+
+    while (isUnstoredRecord(id, type))
+      id = core.nextAbsentID(id + 1);
+
+    return id;
+  }
+
 //---------------------------------------------------------------------------
 //---------------------------------------------------------------------------
 
@@ -152,6 +167,7 @@ public final class HyperDataset<HDT_DT extends HDT_Record>
     needIDs.clear();
     core.clear();
     online = leaveOnline;
+    db.markListingChanged(type);
   }
 
 //---------------------------------------------------------------------------
@@ -184,7 +200,7 @@ public final class HyperDataset<HDT_DT extends HDT_Record>
 
     for (HDT_DT record : needIDs)
     {
-      for (; idAvailable(nextID) == false; nextID++);
+      nextID = nextAvailableID(nextID);
 
       idToAssign = nextID++;
       recordToAssign = record;
@@ -208,6 +224,8 @@ public final class HyperDataset<HDT_DT extends HDT_Record>
 
     core.add(id, record.makeSortKey(), record);
     RelationSet.addOrphanToAll(record);
+    db.markDirty(type);
+    db.markListingChanged(record);
   }
 
 //---------------------------------------------------------------------------
@@ -221,7 +239,7 @@ public final class HyperDataset<HDT_DT extends HDT_Record>
         throw new HDB_InternalError(89843);
 
       if (recordState.id < 1)
-        for (recordState.id = 1; idAvailable(recordState.id) == false; recordState.id++);
+        recordState.id = nextAvailableID(1);
     }
 
     HDT_DT record = createRecord(recordState);
@@ -269,10 +287,11 @@ public final class HyperDataset<HDT_DT extends HDT_Record>
 //---------------------------------------------------------------------------
 //---------------------------------------------------------------------------
 
-  void writeToXML(StringBuilder xml) throws HDB_InternalError, TerminateTaskException
+  void writeToXML(Writer writer) throws IOException, HDB_InternalError, TerminateTaskException
   {
     if (core.size() == 0) return;
 
+    StringBuilder xml = new StringBuilder(); // Reused for each record so the whole dataset is never buffered in memory
     int ndx = 0;
 
     for (HDT_DT record : getAccessor())
@@ -290,13 +309,15 @@ public final class HyperDataset<HDT_DT extends HDT_Record>
       {
         record.saveToStoredState();
         record.writeStoredStateToXML(xml);
+        writer.append(xml);
+        xml.setLength(0);
         db.task.updateProgress(db.curTaskCount + ndx, db.totalTaskCount);
       }
 
       if (db.task.isCancelled()) throw new TerminateTaskException();
     }
 
-    xml.append(System.lineSeparator() + System.lineSeparator() + System.lineSeparator());
+    writer.write(System.lineSeparator() + System.lineSeparator() + System.lineSeparator());
   }
 
 //---------------------------------------------------------------------------
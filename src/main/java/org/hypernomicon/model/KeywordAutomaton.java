@@ -0,0 +1,226 @@
+/*
+ * Copyright 2015-2020 Jason Winning
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.hypernomicon.model;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.hypernomicon.model.SearchKeys.SearchKeyword;
+
+//---------------------------------------------------------------------------
+
+// Aho-Corasick automaton over the text of a set of search keywords. Matching is
+// case-insensitive in the same way as String.equalsIgnoreCase. Instances are
+// immutable once built, so they can be used from multiple threads.
+//
+// An automaton can also be a patched copy of another one, which skips the keywords
+// removed since the other one was built and also runs a small automaton over the
+// keywords added since then, so that a keyword change doesn't require rebuilding
+// the whole thing right away.
+
+final class KeywordAutomaton
+{
+
+//---------------------------------------------------------------------------
+
+  @FunctionalInterface interface MatchHandler { void match(int start, SearchKeyword keyword); }
+
+//---------------------------------------------------------------------------
+
+  private static final class Node
+  {
+    private static final char[] NO_CHARS = new char[0];
+    private static final Node[] NO_NODES = new Node[0];
+
+    private final int depth;
+    private char[] chars = NO_CHARS;   // Sorted, parallel to children
+    private Node[] children = NO_NODES;
+    private Node fail, output;         // output is the nearest node along the fail chain that ends a keyword
+    private SearchKeyword keyword;
+
+    private Node(int depth) { this.depth = depth; }
+
+  //---------------------------------------------------------------------------
+
+    private Node getChild(char c)
+    {
+      int ndx = Arrays.binarySearch(chars, c);
+      return ndx < 0 ? null : children[ndx];
+    }
+
+  //---------------------------------------------------------------------------
+
+    private Node getOrAddChild(char c)
+    {
+      int ndx = Arrays.binarySearch(chars, c);
+      if (ndx >= 0) return children[ndx];
+
+      ndx = -(ndx + 1);
+
+      char[] newChars = new char[chars.length + 1];
+      Node[] newChildren = new Node[children.length + 1];
+
+      System.arraycopy(chars, 0, newChars, 0, ndx);
+      System.arraycopy(children, 0, newChildren, 0, ndx);
+      System.arraycopy(chars, ndx, newChars, ndx + 1, chars.length - ndx);
+      System.arraycopy(children, ndx, newChildren, ndx + 1, children.length - ndx);
+
+      Node child = new Node(depth + 1);
+      newChars[ndx] = c;
+      newChildren[ndx] = child;
+
+      chars = newChars;
+      children = newChildren;
+
+      return child;
+    }
+  }
+
+//---------------------------------------------------------------------------
+
+  private final Node root;
+  private final KeywordAutomaton added; // Null unless this is a patched copy
+  private final Set<SearchKeyword> removed;
+
+//---------------------------------------------------------------------------
+//---------------------------------------------------------------------------
+
+  KeywordAutomaton(Collection<SearchKeyword> keywords) { this(build(keywords), null, Collections.emptySet()); }
+
+  private KeywordAutomaton(Node root, KeywordAutomaton added, Set<SearchKeyword> removed)
+  {
+    this.root = root;
+    this.added = added;
+    this.removed = removed;
+  }
+
+//---------------------------------------------------------------------------
+//---------------------------------------------------------------------------
+
+  // Only the nodes for the added keywords are built; this automaton's nodes are shared with the copy
+
+  KeywordAutomaton withChanges(Collection<SearchKeyword> addedKeywords, Collection<SearchKeyword> removedKeywords)
+  {
+    return new KeywordAutomaton(root, addedKeywords.isEmpty() ? null : new KeywordAutomaton(addedKeywords), new HashSet<>(removedKeywords));
+  }
+
+//---------------------------------------------------------------------------
+//---------------------------------------------------------------------------
+
+  private static Node build(Collection<SearchKeyword> keywords)
+  {
+    Node root = new Node(0);
+
+    for (SearchKeyword keyword : keywords)
+    {
+      Node node = root;
+
+      for (int ndx = 0; ndx < keyword.text.length(); ndx++)
+        node = node.getOrAddChild(fold(keyword.text.charAt(ndx)));
+
+      if ((node != root) && (node.keyword == null))
+        node.keyword = keyword;
+    }
+
+    Deque<Node> queue = new ArrayDeque<>();
+
+    for (Node child : root.children)
+    {
+      child.fail = root;
+      queue.add(child);
+    }
+
+    while (queue.isEmpty() == false)
+    {
+      Node node = queue.remove();
+
+      for (int ndx = 0; ndx < node.children.length; ndx++)
+      {
+        char c = node.chars[ndx];
+        Node child = node.children[ndx], fail = node.fail;
+
+        while ((fail != root) && (fail.getChild(c) == null))
+          fail = fail.fail;
+
+        Node failChild = fail.getChild(c);
+        child.fail = failChild == null ? root : failChild;
+        child.output = child.fail.keyword == null ? child.fail.output : child.fail;
+
+        queue.add(child);
+      }
+    }
+
+    return root;
+  }
+
+//---------------------------------------------------------------------------
+//---------------------------------------------------------------------------
+
+  private static char fold(char c) { return Character.toLowerCase(Character.toUpperCase(c)); }
+
+//---------------------------------------------------------------------------
+//---------------------------------------------------------------------------
+
+  // Reports every occurrence of every keyword in the text, in order of where the occurrences end. For a patched
+  // copy, the occurrences of the added keywords are reported after the others.
+
+  void findMatches(String text, MatchHandler handler)
+  {
+    if (removed.isEmpty())
+      findMatches(root, text, handler);
+    else
+      findMatches(root, text, (start, keyword) -> { if (removed.contains(keyword) == false) handler.match(start, keyword); });
+
+    if (added != null)
+      added.findMatches(text, handler);
+  }
+
+//---------------------------------------------------------------------------
+//---------------------------------------------------------------------------
+
+  private static void findMatches(Node root, String text, MatchHandler handler)
+  {
+    Node node = root;
+
+    for (int ndx = 0; ndx < text.length(); ndx++)
+    {
+      char c = fold(text.charAt(ndx));
+      Node next = node.getChild(c);
+
+      while ((next == null) && (node != root))
+      {
+        node = node.fail;
+        next = node.getChild(c);
+      }
+
+      node = next == null ? root : next;
+
+      for (Node match = node.keyword == null ? node.output : node; match != null; match = match.output)
+        handler.match(ndx - match.depth + 1, match.keyword);
+    }
+  }
+
+//---------------------------------------------------------------------------
+//---------------------------------------------------------------------------
+
+}
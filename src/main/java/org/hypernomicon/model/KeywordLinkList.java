@@ -66,101 +66,132 @@ public final class KeywordLinkList
     List<Integer> posMap = new ArrayList<>();
     text = convertToEnglishCharsWithMap(text, posMap); // posMap maps output position (key) to input position (value)
 
-    boolean checkPeriods = false;
+    // For each position in the text, the longest keyword that can be linked starting there
 
-    if (text.matches(".*[a-zA-Z][.][a-zA-Z].*"))
-    {
-      if (text.matches(".*[^a-zA-Z][a-zA-Z][.][a-zA-Z].*") ||
-          text.matches(".*^[a-zA-Z][.][a-zA-Z].*"))
-        checkPeriods = true;
-    }
+    SearchKeyword[] keyAtNdx = new SearchKeyword[text.length()];
+    int[] matchLenAtNdx = new int[text.length()];
+
+    findKeywords(text, overrideSet ? searchKeysToUse.getAutomaton() : db.getKeywordAutomaton(), keyAtNdx, matchLenAtNdx);
 
     int ndx = 0;
 
     while (ndx < text.length())
     {
-      String fourChars = safeSubstring(text, ndx, ndx + 4).toLowerCase();
-
-      if (fourChars.equals("http"))
+      if (text.regionMatches(true, ndx, "http", 0, 4))
       {
         for (; (ndx < text.length()) && charIsPartOfWebLink(text, ndx); ndx++);
         continue;
       }
-      else if (fourChars.equals("href")) // don't convert anything in an anchor tag to a link
+      else if (text.regionMatches(true, ndx, "href", 0, 4)) // don't convert anything in an anchor tag to a link
       {
         for (; (ndx < text.length()) && (text.charAt(ndx) != '>'); ndx++);
         continue;
       }
 
-      String prefix = safeSubstring(text, ndx, ndx + 3);
+      if (keyAtNdx[ndx] != null)
+        ndx = add(text, ndx, matchLenAtNdx[ndx], keyAtNdx[ndx], posMap);
 
-      if (checkPeriods) // This happens less than 1 percent of the time
-      {
-        prefix = prefix.replace(".", ". ");
-        while (prefix.contains("  "))
-          prefix = prefix.replaceAll("  ", " ");
+      ndx++;
+    }
+  }
 
-        prefix = safeSubstring(prefix, 0, 3);
-      }
+//---------------------------------------------------------------------------
+//---------------------------------------------------------------------------
+
+  private static void findKeywords(String text, KeywordAutomaton automaton, SearchKeyword[] keyAtNdx, int[] matchLenAtNdx)
+  {
+    if (checkPeriods(text) == false)
+    {
+      automaton.findMatches(text, (start, key) -> addMatch(text, start, key.text.length(), key, keyAtNdx, matchLenAtNdx));
+      return;
+    }
+
+    // This happens less than 1 percent of the time. Periods are matched as if followed by a space, so that
+    // e.g. "J.S. Mill" matches the keyword "J. S. Mill". Runs of spaces are matched as a single space.
+
+    StringBuilder spacedText = new StringBuilder(text.length() + 16);
+    int[] spacedToText = new int[text.length() * 2];
+    boolean[] inserted = new boolean[text.length() * 2];
 
-      SearchKeyword curKey = null;
-      List<SearchKeyword> keys;
-      int curMatchLen = 0;
+    for (int ndx = 0; ndx < text.length(); ndx++)
+    {
+      char c = text.charAt(ndx);
+
+      if ((c == ' ') && (spacedText.length() > 0) && (spacedText.charAt(spacedText.length() - 1) == ' '))
+        continue;
 
-      keys = overrideSet ? searchKeysToUse.getKeywordsByPrefix(prefix) : db.getKeysByPrefix(prefix);
+      spacedToText[spacedText.length()] = ndx;
+      spacedText.append(c);
 
-      for (SearchKeyword key : keys)
+      if (c == '.')
       {
-        int matchLen;
-        String focusStr = safeSubstring(text, ndx, ndx + key.text.length());
-
-        if (checkPeriods) // This happens less than 1 percent of the time
-        {
-          matchLen = focusStr.length();
-          focusStr = focusStr.replace(".", ". ");
-
-          while (focusStr.contains("  "))
-            focusStr = focusStr.replaceAll("  ", " ");
-
-          matchLen = key.text.length() - (focusStr.length() - matchLen);
-          focusStr = safeSubstring(focusStr, 0, key.text.length());
-        }
-        else
-          matchLen = key.text.length();
-
-        if (focusStr.equalsIgnoreCase(key.text))
-        {
-          boolean addOK = true;
-
-          if (key.startOnly && (ndx > 0))
-          {
-            char c = text.charAt(ndx - 1);
-            if (((c >= 'a') && (c <= 'z')) || ((c >= 'A') && (c <= 'Z')))
-              addOK = false;
-          }
-
-          if (key.endOnly && ((ndx + matchLen) < text.length()))
-          {
-            char c = text.charAt(ndx + matchLen);
-            if (((c >= 'a') && (c <= 'z')) || ((c >= 'A') && (c <= 'Z')))
-              addOK = false;
-          }
-
-          if (addOK && ((curKey == null) || (matchLen > curKey.text.length())))
-          {
-            curKey = key;
-            curMatchLen = matchLen;
-          }
-        }
+        spacedToText[spacedText.length()] = ndx;
+        inserted[spacedText.length()] = true;
+        spacedText.append(' ');
       }
+    }
 
-      if (curKey != null)
-        ndx = add(text, ndx, curMatchLen, curKey, posMap);
+    automaton.findMatches(spacedText.toString(), (start, key) ->
+    {
+      if (inserted[start]) return;
 
-      ndx++;
+      int textStart = spacedToText[start];
+      addMatch(text, textStart, (spacedToText[start + key.text.length() - 1] - textStart) + 1, key, keyAtNdx, matchLenAtNdx);
+    });
+  }
+
+//---------------------------------------------------------------------------
+//---------------------------------------------------------------------------
+
+  private static void addMatch(String text, int ndx, int matchLen, SearchKeyword key, SearchKeyword[] keyAtNdx, int[] matchLenAtNdx)
+  {
+    if (key.startOnly && (ndx > 0) && isAsciiLetter(text.charAt(ndx - 1)))
+      return;
+
+    if (key.endOnly && ((ndx + matchLen) < text.length()) && isAsciiLetter(text.charAt(ndx + matchLen)))
+      return;
+
+    if ((keyAtNdx[ndx] == null) || (key.text.length() > keyAtNdx[ndx].text.length()))
+    {
+      keyAtNdx[ndx] = key;
+      matchLenAtNdx[ndx] = matchLen;
     }
   }
 
+//---------------------------------------------------------------------------
+//---------------------------------------------------------------------------
+
+  private static boolean isAsciiLetter(char c)
+  {
+    return ((c >= 'a') && (c <= 'z')) || ((c >= 'A') && (c <= 'Z'));
+  }
+
+//---------------------------------------------------------------------------
+//---------------------------------------------------------------------------
+
+  // True if the text has a letter, then a period, then a letter, at the start of the text or following a non-letter.
+  // Like the regexes this replaced, it's always false if the text contains a line break.
+
+  private static boolean checkPeriods(String text)
+  {
+    boolean found = false;
+
+    for (int ndx = 0; ndx < text.length(); ndx++)
+    {
+      char c = text.charAt(ndx);
+
+      if ((c == '\n') || (c == '\r') || (c == '\u0085') || (c == '\u2028') || (c == '\u2029'))
+        return false;
+
+      if ((found == false) && (c == '.') && (ndx > 0) && ((ndx + 1) < text.length()) &&
+          isAsciiLetter(text.charAt(ndx - 1)) && isAsciiLetter(text.charAt(ndx + 1)) &&
+          ((ndx == 1) || (isAsciiLetter(text.charAt(ndx - 2)) == false)))
+        found = true;
+    }
+
+    return found;
+  }
+
 //---------------------------------------------------------------------------
 //---------------------------------------------------------------------------
 
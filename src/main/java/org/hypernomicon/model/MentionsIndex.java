@@ -18,29 +18,29 @@
 package org.hypernomicon.model;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.EnumSet;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.commons.lang3.mutable.MutableBoolean;
-import org.apache.commons.lang3.mutable.MutableInt;
 
 import javafx.application.Platform;
-import javafx.beans.property.ObjectProperty;
-import javafx.beans.property.SimpleObjectProperty;
 
 import org.hypernomicon.HyperTask;
 import org.hypernomicon.HyperTask.HyperThread;
+import org.hypernomicon.model.SearchKeys.SearchKeyword;
 import org.hypernomicon.model.items.MainText;
 import org.hypernomicon.model.items.StrongLink;
-import org.hypernomicon.model.records.HDT_MiscFile;
 import org.hypernomicon.model.records.HDT_Record;
 import org.hypernomicon.model.records.RecordType;
 import org.hypernomicon.model.records.HDT_RecordWithConnector;
 import org.hypernomicon.model.records.SimpleRecordTypes.HDT_RecordWithPath;
 import org.hypernomicon.util.BidiOneToManyRecordMap;
-import org.hypernomicon.view.mainText.MainTextUtil;
-import org.jsoup.nodes.Element;
 
 import static org.hypernomicon.App.*;
 import static org.hypernomicon.model.HyperDB.*;
@@ -56,11 +56,15 @@ class MentionsIndex
   private final KeywordLinkList linkList = new KeywordLinkList();
   private final EnumSet<RecordType> types;
   private final List<String> strList = new ArrayList<>();
+  private final AtomicInteger ctr = new AtomicInteger();
+
+  private static final int REBUILD_CHUNK_SIZE = 250;
 
   private RebuildThread thread = null;
   private HyperTask task = null;
-  private double ctr, total;
-  private boolean stopRequested = false;
+  private Set<String> rebuildKeyTokens = null; // Null unless the running rebuild only covers mentioners of changed keywords
+  private int total;
+  private volatile boolean stopRequested = false;
 
 //---------------------------------------------------------------------------
 //---------------------------------------------------------------------------
@@ -88,6 +92,99 @@ class MentionsIndex
     mentionedAnywhereToMentioners.removeRecord(record);
   }
 
+//---------------------------------------------------------------------------
+//---------------------------------------------------------------------------
+
+  // Reindexes, on the rebuild thread, only the mentioners whose text could contain one of the keywords. Only text
+  // that contains every letter/digit run of a keyword can match it, so the longest run is used to check each mentioner.
+
+  void reindexMentionersOf(Collection<SearchKeyword> keywords)
+  {
+    Set<String> keyTokens = new HashSet<>();
+
+    for (SearchKeyword keyword : keywords)
+    {
+      String keyToken = "";
+
+      for (String token : getTokens(keyword.text, new HashSet<>()))
+        if (token.length() > keyToken.length())
+          keyToken = token;
+
+      if (keyToken.isEmpty())
+      {
+        startRebuild();
+        return;
+      }
+
+      keyTokens.add(keyToken);
+    }
+
+    if (keyTokens.isEmpty()) return;
+
+    if (isRebuilding())
+    {
+      if (rebuildKeyTokens == null)
+      {
+        startRebuild(); // Records that were already reindexed may have been matched against the old keywords
+        return;
+      }
+
+      keyTokens.addAll(rebuildKeyTokens); // Restart with the mentioners of both sets of keywords
+    }
+
+    startRebuild(keyTokens);
+  }
+
+//---------------------------------------------------------------------------
+//---------------------------------------------------------------------------
+
+  private static Set<String> getTokens(String str, Set<String> tokens)
+  {
+    str = convertToEnglishChars(str).toLowerCase();
+    int start = -1;
+
+    for (int ndx = 0; ndx <= str.length(); ndx++)
+    {
+      if ((ndx < str.length()) && Character.isLetterOrDigit(str.charAt(ndx)))
+      {
+        if (start < 0) start = ndx;
+      }
+      else if (start >= 0)
+      {
+        tokens.add(str.substring(start, ndx));
+        start = -1;
+      }
+    }
+
+    return tokens;
+  }
+
+//---------------------------------------------------------------------------
+//---------------------------------------------------------------------------
+
+  // strList is a scratch object; each thread has to pass in its own
+
+  private static boolean mightMention(HDT_Record record, Set<String> keyTokens, List<String> strList)
+  {
+    strList.clear();
+
+    record.getAllStrings(strList, true);
+
+    if (record.hasMainText())
+      strList.add(((HDT_RecordWithConnector)record).getMainText().getPlain());
+
+    for (String str : strList)
+    {
+      String normalized = convertToEnglishChars(str).toLowerCase(); // The keyword's first and last runs may be part of longer runs in the text
+
+      for (String keyToken : keyTokens)
+        if (normalized.contains(keyToken))
+          return true;
+    }
+
+    return false;
+  }
+
 //---------------------------------------------------------------------------
 //---------------------------------------------------------------------------
 
@@ -121,7 +218,11 @@ class MentionsIndex
 //---------------------------------------------------------------------------
 //---------------------------------------------------------------------------
 
-  private void reindexMentioner(HDT_Record record)
+  private void reindexMentioner(HDT_Record record) { reindexMentioner(record, linkList, strList); }
+
+  // linkList and strList are scratch objects; each thread has to pass in its own
+
+  private void reindexMentioner(HDT_Record record, KeywordLinkList linkList, List<String> strList)
   {
     if (record == null) return;
 
@@ -142,19 +243,11 @@ class MentionsIndex
     {
       MainText mainText = ((HDT_RecordWithConnector)record).getMainText();
 
-      MutableInt startNdx = new MutableInt(0), endNdx = new MutableInt(0);
-      ObjectProperty<Element> elementProp = new SimpleObjectProperty<>();
-
-      HDT_MiscFile miscFile = MainTextUtil.nextEmbeddedMiscFile(mainText.getHtml(), startNdx, endNdx, elementProp);
-
-      while (miscFile != null)
+      mainText.getEmbeddedMiscFiles().forEach(miscFile ->
       {
         mentionedAnywhereToMentioners.addForward(miscFile, record);
         mentionedInDescToMentioners.addForward(miscFile, record);
-
-        startNdx.add(1);
-        miscFile = MainTextUtil.nextEmbeddedMiscFile(mainText.getHtml(), startNdx, endNdx, elementProp);
-      }
+      });
 
       String plainText = mainText.getPlain();
 
@@ -227,10 +320,64 @@ class MentionsIndex
 //---------------------------------------------------------------------------
 //---------------------------------------------------------------------------
 
-  boolean startRebuild()
+  // Reindexes a range of the records list, splitting it in half until the range is small enough.
+  // If keyTokens is not null, only records that might mention one of them are reindexed.
+
+  private final class ReindexAction extends RecursiveAction
+  {
+    private static final long serialVersionUID = 1L;
+
+    private final List<HDT_Record> records;
+    private final Set<String> keyTokens;
+    private final int start, end;
+
+    private ReindexAction(List<HDT_Record> records, Set<String> keyTokens, int start, int end)
+    {
+      this.records = records;
+      this.keyTokens = keyTokens;
+      this.start = start;
+      this.end = end;
+    }
+
+    @Override protected void compute()
+    {
+      if ((end - start) > REBUILD_CHUNK_SIZE)
+      {
+        int mid = (start + end) >>> 1;
+        invokeAll(new ReindexAction(records, keyTokens, start, mid), new ReindexAction(records, keyTokens, mid, end));
+        return;
+      }
+
+      KeywordLinkList chunkLinkList = new KeywordLinkList();
+      List<String> chunkStrList = new ArrayList<>();
+
+      for (int ndx = start; ndx < end; ndx++)
+      {
+        if (stopRequested) return;
+
+        HDT_Record record = records.get(ndx);
+
+        if ((keyTokens == null) || mightMention(record, keyTokens, chunkStrList))
+          reindexMentioner(record, chunkLinkList, chunkStrList);
+      }
+
+      task.updateProgress(ctr.addAndGet(end - start), total);
+    }
+  }
+
+//---------------------------------------------------------------------------
+//---------------------------------------------------------------------------
+
+  boolean startRebuild() { return startRebuild(null); }
+
+  // If keyTokens is null, every record is reindexed
+
+  private boolean startRebuild(Set<String> keyTokens)
   {
     stopRebuild();
 
+    rebuildKeyTokens = keyTokens;
+
     task = new HyperTask("MentionsIndex")
     {
       @Override protected void done()
@@ -250,36 +397,35 @@ class MentionsIndex
       {
         updateMessage("The requested operation will be performed after indexing has completed...");
 
-        mentionedInDescToMentioners.clear();
-        mentionedAnywhereToMentioners.clear();
+        if (keyTokens == null)
+        {
+          mentionedInDescToMentioners.clear();
+          mentionedAnywhereToMentioners.clear();
+        }
 
-        ctr = -1.0; total = 0.0;
-        types.forEach(type -> total += db.records(type).size());
+        List<HDT_Record> records = new ArrayList<>();
+        types.forEach(type -> db.records(type).forEach(records::add));
 
-        for (RecordType type : types) for (HDT_Record record : db.records(type))
-        {
-          if ((((int)ctr++) % 50) == 0)
-          {
-            if (stopRequested)
-            {
-              updateProgress(total, total);
-              stopRequested = false;
-              return true;
-            }
+        ctr.set(0);
+        total = records.size();
 
-            updateProgress(ctr, total);
-          }
+        ForkJoinPool pool = new ForkJoinPool(Math.max(1, Runtime.getRuntime().availableProcessors() - 1));
 
-          try
-          {
-            reindexMentioner(record);
-          }
-          catch (Exception e)
-          {
-            e.printStackTrace();
-            throw(e);
-          }
+        try
+        {
+          pool.invoke(new ReindexAction(records, keyTokens, 0, records.size()));
+        }
+        catch (Exception e)
+        {
+          e.printStackTrace();
+          throw(e);
         }
+        finally
+        {
+          pool.shutdown();
+        }
+
+        stopRequested = false;
 
         updateProgress(total, total);
         return true;
@@ -291,7 +437,7 @@ class MentionsIndex
       Platform.runLater(newValue.doubleValue() == 1.0 ?
         () -> ui.updateProgress("", -1.0)
       :
-        () -> ui.updateProgress("Indexing:", ctr / total));
+        () -> ui.updateProgress("Indexing:", newValue.doubleValue()));
     });
 
     thread = new RebuildThread(task);
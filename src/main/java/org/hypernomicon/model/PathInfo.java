@@ -129,6 +129,9 @@ public class PathInfo
 
   private HDT_Folder getParentFolderOfPath(FilePath filePath)
   {
+    HDT_Folder folder = db.folderTrie.get(filePath.getParent());
+    if (folder != null) return folder;
+
     return (HDT_Folder) findFirst(HyperPath.getHyperPathSetForFilePath(filePath.getParent()),
                                   hyperPath -> hyperPath.getRecordType() == hdtFolder,
                                   HyperPath::getRecord);
@@ -20,13 +20,18 @@ package org.hypernomicon.model;
 import static org.hypernomicon.model.HyperDB.*;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.function.Predicate;
 
+import org.hypernomicon.HyperTask.HyperThread;
 import org.hypernomicon.model.Exceptions.SearchKeyException;
 import org.hypernomicon.model.records.HDT_Record;
 import org.hypernomicon.util.SplitString;
@@ -92,6 +97,59 @@ public final class SearchKeys
   private final Map<String, Map<String, SearchKeyword>> prefixStrToKeywordStrToKeywordObj;
   private final Map<HDT_Record, Map<String, SearchKeyword>> recordToKeywordStrToKeywordObj;
 
+  // These are built on demand from the maps above and are immutable. They are null whenever the keywords have changed since.
+
+  private volatile KeywordAutomaton automaton = null;
+  private volatile PrefixIndex prefixIndex = null;
+
+  // When the keywords change, automaton is replaced by a patched copy of baseAutomaton, which was built from all of the keywords
+  // as of keywordsVersion, while a new baseAutomaton is built in the background. The added and removed sets hold the changes since.
+
+  private KeywordAutomaton baseAutomaton = null;
+  private final Set<SearchKeyword> addedKeywords = new LinkedHashSet<>(), removedKeywords = new HashSet<>();
+  private volatile int keywordsVersion = 0;
+  private boolean buildingAutomaton = false;
+
+//---------------------------------------------------------------------------
+//---------------------------------------------------------------------------
+
+  // Keywords grouped by their lowercased first three characters, which are packed into a long so that
+  // looking up a prefix doesn't allocate anything
+
+  private static final class PrefixIndex
+  {
+    private final long[] prefixes;             // Sorted
+    private final SearchKeyword[][] keywords;  // Parallel to prefixes
+
+    private PrefixIndex(Collection<SearchKeyword> allKeywords)
+    {
+      Map<Long, List<SearchKeyword>> prefixToKeywords = new LinkedHashMap<>();
+
+      allKeywords.forEach(keyword -> prefixToKeywords.computeIfAbsent(packPrefix(keyword.text, 0), prefix -> new ArrayList<>()).add(keyword));
+
+      prefixes = prefixToKeywords.keySet().stream().mapToLong(Long::longValue).sorted().toArray();
+      keywords = new SearchKeyword[prefixes.length][];
+
+      for (int ndx = 0; ndx < prefixes.length; ndx++)
+        keywords[ndx] = prefixToKeywords.get(prefixes[ndx]).toArray(new SearchKeyword[0]);
+    }
+
+    private SearchKeyword[] get(CharSequence text, int start)
+    {
+      if ((text.length() - start) < 3) return null;
+
+      int ndx = Arrays.binarySearch(prefixes, packPrefix(text, start));
+      return ndx < 0 ? null : keywords[ndx];
+    }
+
+    private static long packPrefix(CharSequence text, int start)
+    {
+      return ((long) Character.toLowerCase(text.charAt(start    )) << 32) |
+             ((long) Character.toLowerCase(text.charAt(start + 1)) << 16) |
+              (long) Character.toLowerCase(text.charAt(start + 2));
+    }
+  }
+
 //---------------------------------------------------------------------------
 //---------------------------------------------------------------------------
 
@@ -108,6 +166,164 @@ public final class SearchKeys
   {
     prefixStrToKeywordStrToKeywordObj.clear();
     recordToKeywordStrToKeywordObj.clear();
+
+    synchronized (this)
+    {
+      baseAutomaton = null;
+      addedKeywords.clear();
+      removedKeywords.clear();
+
+      keywordsChanged();
+    }
+  }
+
+//---------------------------------------------------------------------------
+//---------------------------------------------------------------------------
+
+  // Synchronized so that an index being built from the old keywords can't be stored after this
+
+  private synchronized void keywordsChanged()
+  {
+    keywordsVersion++;
+    automaton = null;
+    prefixIndex = null;
+  }
+
+//---------------------------------------------------------------------------
+
+  private synchronized void keywordAdded(SearchKeyword keyword)
+  {
+    if (removedKeywords.remove(keyword) == false)
+      addedKeywords.add(keyword);
+
+    keywordsChanged();
+  }
+
+//---------------------------------------------------------------------------
+
+  private synchronized void keywordsRemoved(Collection<SearchKeyword> keywords)
+  {
+    keywords.forEach(keyword ->
+    {
+      if (addedKeywords.remove(keyword) == false)
+        removedKeywords.add(keyword);
+    });
+
+    keywordsChanged();
+  }
+
+//---------------------------------------------------------------------------
+//---------------------------------------------------------------------------
+
+  private List<SearchKeyword> getAllKeywords()
+  {
+    List<SearchKeyword> keywords = new ArrayList<>();
+
+    synchronized (recordToKeywordStrToKeywordObj)
+    {
+      recordToKeywordStrToKeywordObj.values().forEach(map -> { synchronized (map) { keywords.addAll(map.values()); }});
+    }
+
+    return keywords;
+  }
+
+//---------------------------------------------------------------------------
+//---------------------------------------------------------------------------
+
+  // The automaton is only built on the calling thread if there isn't an older one to patch, e.g., right after loading
+
+  KeywordAutomaton getAutomaton()
+  {
+    KeywordAutomaton curAutomaton = automaton;
+    if (curAutomaton != null) return curAutomaton;
+
+    synchronized (this)
+    {
+      if (automaton != null) return automaton;
+
+      if (baseAutomaton == null)
+      {
+        automaton = baseAutomaton = new KeywordAutomaton(getAllKeywords());
+        addedKeywords.clear();
+        removedKeywords.clear();
+      }
+      else
+      {
+        automaton = baseAutomaton.withChanges(addedKeywords, removedKeywords);
+        startAutomatonBuild();
+      }
+
+      return automaton;
+    }
+  }
+
+//---------------------------------------------------------------------------
+//---------------------------------------------------------------------------
+
+  // Builds a new base automaton from all of the keywords in the background. If the keywords change again while
+  // it is being built, it is thrown away and built again.
+
+  private synchronized void startAutomatonBuild()
+  {
+    if (buildingAutomaton) return;
+
+    buildingAutomaton = true;
+
+    HyperThread thread = new HyperThread(() ->
+    {
+      try
+      {
+        boolean done = false;
+
+        while (done == false)
+        {
+          int version = keywordsVersion;
+          done = storeBaseAutomaton(new KeywordAutomaton(getAllKeywords()), version);
+        }
+      }
+      finally
+      {
+        synchronized (this) { buildingAutomaton = false; }
+      }
+    }, "KeywordAutomaton");
+
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+//---------------------------------------------------------------------------
+//---------------------------------------------------------------------------
+
+  // Returns false if the keywords changed after version, in which case newAutomaton is out of date
+
+  private synchronized boolean storeBaseAutomaton(KeywordAutomaton newAutomaton, int version)
+  {
+    if (baseAutomaton == null) return true; // All keywords were removed; the next automaton will be built when it's needed
+
+    if (version != keywordsVersion) return false;
+
+    automaton = baseAutomaton = newAutomaton;
+    addedKeywords.clear();
+    removedKeywords.clear();
+
+    return true;
+  }
+
+//---------------------------------------------------------------------------
+//---------------------------------------------------------------------------
+
+  private PrefixIndex getPrefixIndex()
+  {
+    PrefixIndex curPrefixIndex = prefixIndex;
+    if (curPrefixIndex != null) return curPrefixIndex;
+
+    synchronized (this)
+    {
+      if (prefixIndex == null)
+        prefixIndex = new PrefixIndex(getAllKeywords());
+
+      return prefixIndex;
+    }
   }
 
 //---------------------------------------------------------------------------
@@ -115,7 +331,24 @@ public final class SearchKeys
 
   public List<SearchKeyword> getKeywordsByPrefix(String prefix)
   {
-    return nullSwitch(prefixStrToKeywordStrToKeywordObj.get(prefix.toLowerCase()), new ArrayList<>(), map -> new ArrayList<>(map.values()));
+    return nullSwitch(getPrefixIndex().get(prefix, 0), new ArrayList<>(), keywords -> new ArrayList<>(Arrays.asList(keywords)));
+  }
+
+//---------------------------------------------------------------------------
+//---------------------------------------------------------------------------
+
+  // Returns the first keyword sharing its first three characters with the text that satisfies the condition, or null
+
+  public SearchKeyword findKeywordByPrefix(CharSequence text, Predicate<SearchKeyword> condition)
+  {
+    SearchKeyword[] keywords = getPrefixIndex().get(text, 0);
+    if (keywords == null) return null;
+
+    for (SearchKeyword keyword : keywords)
+      if (condition.test(keyword))
+        return keyword;
+
+    return null;
   }
 
 //---------------------------------------------------------------------------
@@ -176,8 +409,14 @@ public final class SearchKeys
     if (noMod == false)
       record.modifyNow();
 
+    db.markDirty(record.getType());
+    db.markListingChanged(record);
+
     if (dontRebuildMentions == false)
-      db.rebuildMentions();
+    {
+      oldKeywordObjs.addAll(getKeysByRecord(record));
+      db.reindexMentionersOf(oldKeywordObjs);
+    }
   }
 
 //---------------------------------------------------------------------------
@@ -253,6 +492,8 @@ public final class SearchKeys
     }
 
     keywordStrToKeywordObj.put(keyword.text.toLowerCase(), keyword);
+
+    keywordAdded(keyword);
   }
 
 //---------------------------------------------------------------------------
@@ -287,6 +528,9 @@ public final class SearchKeys
       return true;
     }); }});
 
+    if (oldKeywordObjs.isEmpty() == false)
+      keywordsRemoved(oldKeywordObjs);
+
     return oldKeywordObjs;
   }
 
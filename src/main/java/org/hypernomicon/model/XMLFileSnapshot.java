@@ -0,0 +1,520 @@
+/*
+ * Copyright 2015-2020 Jason Winning
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.hypernomicon.model;
+
+import static org.hypernomicon.App.*;
+import static org.hypernomicon.model.HyperDB.db;
+import static org.hypernomicon.util.Util.*;
+
+import static org.apache.commons.text.StringEscapeUtils.unescapeXml;
+
+import static java.nio.charset.StandardCharsets.*;
+import static java.nio.file.StandardCopyOption.*;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.Checksum;
+
+import org.apache.commons.lang3.SystemUtils;
+
+import org.hypernomicon.model.HyperDB.Tag;
+import org.hypernomicon.model.records.RecordType;
+import org.hypernomicon.util.VersionNumber;
+import org.hypernomicon.util.filePath.FilePath;
+
+//---------------------------------------------------------------------------
+
+// Binary copy of what the parser reads out of one records XML file. It is written along with the XML file when
+// saving, or while parsing the XML file if it was missing or out of date. It is only trusted if the XML file still
+// has the same size and modification time, or failing that, the same checksum, and the app version hasn't changed.
+// Snapshots and the temporary files they are written to are kept in a hidden subfolder of
+// the XML folder, which the folder tree watcher leaves alone.
+
+final class XMLFileSnapshot
+{
+
+//---------------------------------------------------------------------------
+
+  static final int ENTRY_END = 0, ENTRY_RECORD = 1, ENTRY_DATE = 2, ENTRY_ITEM = 3;
+
+  private static final long MAGIC = 0x4844425F534E4150L; // "HDB_SNAP"
+  private static final int FORMAT_VERSION = 2;
+  private static final String SNAPSHOT_FILE_EXT = ".snapshot", TEMP_FILE_EXT = ".tmp";
+
+  // The XML file's size, modification time, and checksum come right after the enum fingerprint in the header
+
+  private static final int XML_FILE_INFO_OFFSET = 16;
+
+  // Tags and record types are stored by ordinal, so the snapshot is stale if either enum changes
+
+  private static final int ENUM_FINGERPRINT = (Arrays.toString(Tag.values()) + Arrays.toString(RecordType.values())).hashCode();
+
+  private static final Tag[] tags = Tag.values();
+  private static final RecordType[] types = RecordType.values();
+
+//---------------------------------------------------------------------------
+
+  private static FilePath snapshotPath(FilePath xmlFilePath) { return db.snapshotPath(xmlFilePath.getNameOnly() + SNAPSHOT_FILE_EXT); }
+
+//---------------------------------------------------------------------------
+//---------------------------------------------------------------------------
+
+  // Creates the snapshot folder if needed and deletes temporary files left behind by snapshots
+  // that were never finished, e.g., because the app was closed while they were being written
+
+  static void prepareFolder()
+  {
+    Path folderPath = db.snapshotPath().toPath();
+
+    try
+    {
+      Files.createDirectories(folderPath);
+
+      if (SystemUtils.IS_OS_WINDOWS)
+        Files.setAttribute(folderPath, "dos:hidden", true);
+
+      try (DirectoryStream<Path> stream = Files.newDirectoryStream(folderPath, "*" + TEMP_FILE_EXT))
+      {
+        for (Path path : stream)
+          Files.deleteIfExists(path);
+      }
+    }
+    catch (IOException | UnsupportedOperationException e) { noOp(); }
+  }
+
+//---------------------------------------------------------------------------
+//---------------------------------------------------------------------------
+
+  static long checksum(FilePath filePath) throws IOException
+  {
+    try (InputStream in = new FileInputStream(filePath.toFile()))
+    {
+      return checksum(in, new CRC32());
+    }
+  }
+
+  // Reads the rest of the stream and returns the updated checksum value
+
+  static long checksum(InputStream in, Checksum checksum) throws IOException
+  {
+    byte[] buf = new byte[65536];
+    int count;
+
+    while ((count = in.read(buf)) >= 0)
+      checksum.update(buf, 0, count);
+
+    return checksum.getValue();
+  }
+
+//---------------------------------------------------------------------------
+//---------------------------------------------------------------------------
+
+  // Returns what the XML parser will read back for text that was written to the file already escaped
+
+  static String parsedText(String escapedText)
+  {
+    if ((escapedText.indexOf('&') < 0) && (escapedText.indexOf('\r') < 0)) return escapedText;
+
+    return unescapeXml(escapedText).replace("\r\n", "\n").replace('\r', '\n');
+  }
+
+//---------------------------------------------------------------------------
+//---------------------------------------------------------------------------
+
+  private static void writeXMLFileInfo(File snapshotFile, long xmlSize, long xmlModTime, long xmlChecksum) throws IOException
+  {
+    try (RandomAccessFile file = new RandomAccessFile(snapshotFile, "rw"))
+    {
+      file.seek(XML_FILE_INFO_OFFSET);
+      file.writeLong(xmlSize);
+      file.writeLong(xmlModTime);
+      file.writeLong(xmlChecksum);
+    }
+  }
+
+//---------------------------------------------------------------------------
+//---------------------------------------------------------------------------
+
+  private static void writeString(DataOutputStream out, String str) throws IOException
+  {
+    if (str == null)
+    {
+      out.writeInt(-1);
+      return;
+    }
+
+    byte[] bytes = str.getBytes(UTF_8);
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+//---------------------------------------------------------------------------
+
+  private static String readString(DataInputStream in) throws IOException
+  {
+    int length = in.readInt();
+    if (length < 0) return null;
+
+    byte[] bytes = new byte[length];
+    in.readFully(bytes);
+    return new String(bytes, UTF_8);
+  }
+
+//---------------------------------------------------------------------------
+//---------------------------------------------------------------------------
+
+  // Writing a snapshot is best-effort: if anything goes wrong, the snapshot is discarded and
+  // the XML file will just be parsed again next time. The XML file's size, modification time,
+  // and checksum aren't known until it has been completely written or read, so they are
+  // filled in when the snapshot is committed.
+
+  static final class Writer implements Closeable
+  {
+    private final FilePath xmlFilePath;
+    private final ByteArrayOutputStream nestedBytes = new ByteArrayOutputStream();
+    private final DataOutputStream nestedOut = new DataOutputStream(nestedBytes);
+    private File tempFile;
+    private DataOutputStream out;
+    private int nestedCount = 0;
+
+  //---------------------------------------------------------------------------
+
+    Writer(FilePath xmlFilePath) { this.xmlFilePath = xmlFilePath; }
+
+  //---------------------------------------------------------------------------
+
+    void writeHeader(VersionNumber recordsVersion)
+    {
+      try
+      {
+        tempFile = File.createTempFile(xmlFilePath.getNameOnly().toString(), TEMP_FILE_EXT, db.snapshotPath().toFile());
+        out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile), 65536));
+
+        out.writeLong(MAGIC);
+        out.writeInt(FORMAT_VERSION);
+        out.writeInt(ENUM_FINGERPRINT);
+        out.writeLong(-1L); // Size
+        out.writeLong(-1L); // Modification time
+        out.writeLong(-1L); // Checksum
+        writeString(out, app.getVersion().toString());
+        writeString(out, recordsVersion.toString());
+      }
+      catch (IOException e)
+      {
+        discard();
+      }
+    }
+
+  //---------------------------------------------------------------------------
+
+    void writeRecord(RecordType type, int id, String sortKeyAttr, String searchKey, String listName)
+    {
+      if (out == null) return;
+
+      try
+      {
+        out.writeByte(ENTRY_RECORD);
+        out.writeShort(type.ordinal());
+        out.writeInt(id);
+        writeString(out, sortKeyAttr);
+        writeString(out, searchKey);
+        writeString(out, listName);
+      }
+      catch (IOException e)
+      {
+        discard();
+      }
+    }
+
+  //---------------------------------------------------------------------------
+
+    void writeDate(Tag tag, Instant instant)
+    {
+      if (out == null) return;
+
+      try
+      {
+        out.writeByte(ENTRY_DATE);
+        out.writeShort(tag.ordinal());
+        out.writeLong(instant.getEpochSecond());
+        out.writeInt(instant.getNano());
+      }
+      catch (IOException e)
+      {
+        discard();
+      }
+    }
+
+  //---------------------------------------------------------------------------
+
+    // Nested items are held back until the item they belong to is written
+
+    void writeNestedItem(Tag tag, String text, RecordType objType, int objID)
+    {
+      if (out == null) return;
+
+      try
+      {
+        writeItemFields(nestedOut, tag, text, objType, objID);
+        nestedCount++;
+      }
+      catch (IOException e)
+      {
+        discard();
+      }
+    }
+
+  //---------------------------------------------------------------------------
+
+    void writeItem(Tag tag, String text, RecordType objType, int objID)
+    {
+      if (out == null) return;
+
+      try
+      {
+        out.writeByte(ENTRY_ITEM);
+        writeItemFields(out, tag, text, objType, objID);
+        out.writeInt(nestedCount);
+        nestedBytes.writeTo(out);
+      }
+      catch (IOException e)
+      {
+        discard();
+      }
+
+      nestedBytes.reset();
+      nestedCount = 0;
+    }
+
+  //---------------------------------------------------------------------------
+
+    private static void writeItemFields(DataOutputStream out, Tag tag, String text, RecordType objType, int objID) throws IOException
+    {
+      out.writeShort(tag.ordinal());
+      writeString(out, text);
+      out.writeShort(objType.ordinal());
+      out.writeInt(objID);
+    }
+
+  //---------------------------------------------------------------------------
+
+    // Replaces the existing snapshot, if any, with the one that was just written
+
+    void commit(long xmlSize, long xmlModTime, long xmlChecksum)
+    {
+      if (out == null) return;
+
+      try
+      {
+        out.writeByte(ENTRY_END);
+        out.close();
+        out = null;
+
+        writeXMLFileInfo(tempFile, xmlSize, xmlModTime, xmlChecksum);
+
+        FilePath filePath = snapshotPath(xmlFilePath);
+
+        try
+        {
+          Files.move(tempFile.toPath(), filePath.toPath(), REPLACE_EXISTING, ATOMIC_MOVE);
+        }
+        catch (AtomicMoveNotSupportedException e)
+        {
+          Files.move(tempFile.toPath(), filePath.toPath(), REPLACE_EXISTING);
+        }
+
+        tempFile = null;
+      }
+      catch (IOException e)
+      {
+        discard();
+      }
+    }
+
+  //---------------------------------------------------------------------------
+
+    private void discard()
+    {
+      if (out != null)
+      {
+        try { out.close(); } catch (IOException e) { noOp(); }
+        out = null;
+      }
+
+      if (tempFile != null)
+      {
+        tempFile.delete();
+        tempFile = null;
+      }
+    }
+
+  //---------------------------------------------------------------------------
+
+    @Override public void close() { discard(); }
+  }
+
+//---------------------------------------------------------------------------
+//---------------------------------------------------------------------------
+
+  static final class Reader implements Closeable
+  {
+    private final DataInputStream in;
+    private final VersionNumber recordsVersion;
+
+    RecordType type, objType;
+    Tag tag;
+    int id, objID, nestedCount;
+    String sortKeyAttr, searchKey, listName, text;
+    Instant instant;
+
+  //---------------------------------------------------------------------------
+
+    private Reader(DataInputStream in, VersionNumber recordsVersion)
+    {
+      this.in = in;
+      this.recordsVersion = recordsVersion;
+    }
+
+    VersionNumber getRecordsVersion() { return recordsVersion; }
+
+    @Override public void close() throws IOException { in.close(); }
+
+  //---------------------------------------------------------------------------
+
+    // Returns null if there is no snapshot for the XML file or it is out of date
+
+    // The checksum of the XML file is only computed if its size is the same but its modification time isn't, e.g., because
+    // it was copied or synced from somewhere else. If the checksum matches, the new modification time is saved in the snapshot.
+
+    static Reader openIfFresh(FilePath xmlFilePath)
+    {
+      FilePath filePath = snapshotPath(xmlFilePath);
+      if (filePath.exists() == false) return null;
+
+      File xmlFile = xmlFilePath.toFile();
+      DataInputStream in = null;
+
+      try
+      {
+        in = new DataInputStream(new BufferedInputStream(new FileInputStream(filePath.toFile()), 65536));
+
+        if ((in.readLong() == MAGIC) && (in.readInt() == FORMAT_VERSION) && (in.readInt() == ENUM_FINGERPRINT))
+        {
+          long xmlSize = in.readLong(), xmlModTime = in.readLong(), xmlChecksum = in.readLong(),
+               curModTime = xmlFile.lastModified();
+
+          if (app.getVersion().toString().equals(readString(in)) && (xmlSize == xmlFile.length()))
+          {
+            if (xmlModTime == curModTime)
+              return new Reader(in, new VersionNumber(readString(in)));
+
+            if (xmlChecksum == checksum(xmlFilePath))
+            {
+              try { writeXMLFileInfo(filePath.toFile(), xmlSize, curModTime, xmlChecksum); } catch (IOException e) { noOp(); }
+              return new Reader(in, new VersionNumber(readString(in)));
+            }
+          }
+        }
+      }
+      catch (IOException | RuntimeException e)
+      {
+        noOp();
+      }
+
+      if (in != null)
+        try { in.close(); } catch (IOException e) { noOp(); }
+
+      return null;
+    }
+
+  //---------------------------------------------------------------------------
+
+    // Reads the next entry into the fields and returns its kind. Nested items are read separately
+    // using readNestedItem, nestedCount times, before calling this again.
+
+    int next() throws IOException
+    {
+      int entryKind = in.readByte();
+
+      switch (entryKind)
+      {
+        case ENTRY_RECORD :
+
+          type = types[in.readShort()];
+          id = in.readInt();
+          sortKeyAttr = readString(in);
+          searchKey = readString(in);
+          listName = readString(in);
+          break;
+
+        case ENTRY_DATE :
+
+          tag = tags[in.readShort()];
+          instant = Instant.ofEpochSecond(in.readLong(), in.readInt());
+          break;
+
+        case ENTRY_ITEM :
+
+          readItemFields();
+          nestedCount = in.readInt();
+          break;
+
+        case ENTRY_END :
+          break;
+
+        default :
+          throw new IOException("Invalid snapshot entry");
+      }
+
+      return entryKind;
+    }
+
+  //---------------------------------------------------------------------------
+
+    void readNestedItem() throws IOException { readItemFields(); }
+
+    private void readItemFields() throws IOException
+    {
+      tag = tags[in.readShort()];
+      text = readString(in);
+      objType = types[in.readShort()];
+      objID = in.readInt();
+    }
+  }
+
+//---------------------------------------------------------------------------
+//---------------------------------------------------------------------------
+
+}
@@ -77,7 +77,7 @@ public final class Author implements Cloneable, Comparable<Author>
   public boolean outOfDate()                      { return work == null ? false : work.getAuthors().stream().noneMatch(this::equals); }
   String getBibName()                             { return getName().getBibName(); }
   private PersonName getName(boolean engChar)     { return person == null ? (engChar ? nameEngChar : name) : person.getName(engChar); }
-  private String getSortKey()                     { return person == null ? nameEngChar.getSortKey() : person.getSortKey(); }
+  public String getSortKey()                      { return person == null ? nameEngChar.getSortKey() : person.getSortKey(); }
 
   @Override public int compareTo(Author o)        { return getSortKey().compareTo(o.getSortKey()); }
 
@@ -78,6 +78,17 @@ public final class Connector
   //---------------------------------------------------------------------------
   //---------------------------------------------------------------------------
 
+  // For changes that have to be saved but don't change the modified date
+
+  void markDirty()
+  {
+    if (isLinked()) link.markDirty();
+    db.markDirty(record.getType());
+  }
+
+  //---------------------------------------------------------------------------
+  //---------------------------------------------------------------------------
+
 
   void resolvePointers() throws HDB_InternalError
   {
@@ -0,0 +1,153 @@
+/*
+ * Copyright 2015-2020 Jason Winning
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.hypernomicon.model.items;
+
+import static org.hypernomicon.model.HyperDB.*;
+
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.hypernomicon.model.records.HDT_Folder;
+import org.hypernomicon.util.filePath.FilePath;
+
+//---------------------------------------------------------------------------
+
+// Finds the folder record for a path by walking down from the root folder one path component at a
+// time, without touching the disk. Each folder's children are indexed by name the first time they are
+// needed. An index is rebuilt when the folder's number of children changes or one of them is renamed,
+// and entries are checked against the records before they are used.
+
+public final class FolderTrie
+{
+
+//---------------------------------------------------------------------------
+
+  private static final class ChildIndex
+  {
+    private final Map<String, HDT_Folder> nameToChild;
+    private final int childCount;
+
+    private ChildIndex(Map<String, HDT_Folder> nameToChild, int childCount)
+    {
+      this.nameToChild = nameToChild;
+      this.childCount = childCount;
+    }
+  }
+
+//---------------------------------------------------------------------------
+
+  private final Map<HDT_Folder, ChildIndex> folderToChildIndex = new ConcurrentHashMap<>();
+
+//---------------------------------------------------------------------------
+//---------------------------------------------------------------------------
+
+  public void clear() { folderToChildIndex.clear(); }
+
+  void folderRenamed(HDT_Folder folder)
+  {
+    HDT_Folder parentFolder = folder.parentFolder();
+
+    if (parentFolder != null)
+      folderToChildIndex.remove(parentFolder);
+
+    if (FilePath.isEmpty(folder.getPath().getFileName())) // The record is being deleted
+      folderToChildIndex.remove(folder);
+  }
+
+//---------------------------------------------------------------------------
+//---------------------------------------------------------------------------
+
+  // Returns null if there is no folder record whose path is spelled the same way. There may
+  // still be a record for the same folder on disk, e.g. if the path differs in case.
+
+  public HDT_Folder get(FilePath dirFilePath)
+  {
+    HDT_Folder folder = db.getRootFolder();
+    if ((folder == null) || FilePath.isEmpty(db.getRootPath())) return null;
+
+    Path relPath;
+
+    try { relPath = db.getRootPath().toPath().normalize().relativize(dirFilePath.toPath().normalize()); }
+    catch (IllegalArgumentException e) { return null; }
+
+    if (relPath.toString().isEmpty()) return folder;
+    if (relPath.startsWith("..")) return null;
+
+    for (Path component : relPath)
+    {
+      folder = getChild(folder, component.toString());
+      if (folder == null) return null;
+    }
+
+    return folder;
+  }
+
+//---------------------------------------------------------------------------
+//---------------------------------------------------------------------------
+
+  private HDT_Folder getChild(HDT_Folder folder, String name)
+  {
+    ChildIndex childIndex = folderToChildIndex.get(folder);
+
+    if ((childIndex == null) || (childIndex.childCount != folder.childFolders.size()))
+      childIndex = indexChildren(folder);
+
+    HDT_Folder child = childIndex.nameToChild.get(name);
+    if ((child == null) || isChild(folder, child, name)) return child;
+
+    child = indexChildren(folder).nameToChild.get(name);
+    return (child != null) && isChild(folder, child, name) ? child : null;
+  }
+
+//---------------------------------------------------------------------------
+//---------------------------------------------------------------------------
+
+  private ChildIndex indexChildren(HDT_Folder folder)
+  {
+    int childCount = folder.childFolders.size();
+    Map<String, HDT_Folder> nameToChild = new HashMap<>();
+
+    for (HDT_Folder child : folder.childFolders)
+    {
+      FilePath fileName = child.getPath().getFileName();
+
+      if (FilePath.isEmpty(fileName) == false)
+        nameToChild.put(fileName.toString(), child);
+    }
+
+    ChildIndex childIndex = new ChildIndex(nameToChild, childCount);
+    folderToChildIndex.put(folder, childIndex);
+    return childIndex;
+  }
+
+//---------------------------------------------------------------------------
+//---------------------------------------------------------------------------
+
+  private static boolean isChild(HDT_Folder folder, HDT_Folder child, String name)
+  {
+    FilePath fileName = child.getPath().getFileName();
+
+    return (child.parentFolder() == folder) && (FilePath.isEmpty(fileName) == false) && name.equals(fileName.toString());
+  }
+
+//---------------------------------------------------------------------------
+//---------------------------------------------------------------------------
+
+}
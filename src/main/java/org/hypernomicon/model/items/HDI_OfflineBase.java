@@ -51,6 +51,8 @@ public abstract class HDI_OfflineBase extends HDI_Base
 //---------------------------------------------------------------------------
 //---------------------------------------------------------------------------
 
+  // Each of these also reports what it writes to the database so it can go into the XML file's snapshot
+
   static void writePointerTagWithNestedPointers(StringBuilder xml, Tag tag, int objID, String value, Map<Tag, HDI_OfflineBase> map)
   {
     writePointerTagWithNestedPointers(xml, tag, objID, value, map, false);
@@ -70,16 +72,27 @@ public abstract class HDI_OfflineBase extends HDI_Base
     if (objID > 0)
       idStr = " id=" + QUOTE + objID + QUOTE;
 
-    xml.append("  <" + db.getTagStr(tag) + idStr + ">" + xmlContentEscaper.escape(value))
-       .append(System.lineSeparator());
+    StringBuilder content = new StringBuilder(xmlContentEscaper.escape(value)).append(System.lineSeparator());
+
+    xml.append("  <" + db.getTagStr(tag) + idStr + ">" + content);
 
-    map.forEach((nestedTag, nestedItem) ->
+    db.snapshotNestedItems(() -> map.forEach((nestedTag, nestedItem) ->
     {
       xml.append("  ");
+      content.append("  ");
+
+      int length = xml.length();
       nestedItem.writeToXml(nestedTag, xml);
-    });
+
+      // The whitespace around each nested tag is part of the text of the outer tag
+
+      if (xml.length() > length)
+        content.append("  ").append(System.lineSeparator());
+    }));
 
     xml.append("  </" + db.getTagStr(tag) + ">" + System.lineSeparator());
+
+    db.snapshotItem(tag, content.append("  ").toString(), hdtNone, objID);
   }
 
 //---------------------------------------------------------------------------
@@ -99,8 +112,12 @@ public abstract class HDI_OfflineBase extends HDI_Base
     if (objID > 0)          idStr   = " id="   + QUOTE + objID                     + QUOTE;
     if (objType != hdtNone) typeStr = " type=" + QUOTE + db.getTypeTagStr(objType) + QUOTE;
 
-    xml.append("  <" + db.getTagStr(tag) + typeStr + idStr + ">" + xmlContentEscaper.escape(value) + "</" + db.getTagStr(tag) + ">")
+    String content = xmlContentEscaper.escape(value);
+
+    xml.append("  <" + db.getTagStr(tag) + typeStr + idStr + ">" + content + "</" + db.getTagStr(tag) + ">")
        .append(System.lineSeparator());
+
+    db.snapshotItem(tag, content, objType, objID);
   }
 
 //---------------------------------------------------------------------------
@@ -109,7 +126,11 @@ public abstract class HDI_OfflineBase extends HDI_Base
   static void writeStringTag(StringBuilder xml, Tag tag, String tagText)
   {
     if (tagText.isEmpty()) return;
-    xml.append("  <" + db.getTagStr(tag) + ">" + xmlContentEscaper.escape(tagText) + "</" + db.getTagStr(tag) + ">" + System.lineSeparator());
+
+    String content = xmlContentEscaper.escape(tagText);
+
+    xml.append("  <" + db.getTagStr(tag) + ">" + content + "</" + db.getTagStr(tag) + ">" + System.lineSeparator());
+    db.snapshotItem(tag, content, hdtNone, -1);
   }
 
 //---------------------------------------------------------------------------
@@ -117,7 +138,10 @@ public abstract class HDI_OfflineBase extends HDI_Base
 
   static void writeBooleanTag(StringBuilder xml, Tag tag, boolean tf)
   {
-    xml.append("  <" + db.getTagStr(tag) + ">" + (tf ? "true" : "false") + "</" + db.getTagStr(tag) + ">" + System.lineSeparator());
+    String content = tf ? "true" : "false";
+
+    xml.append("  <" + db.getTagStr(tag) + ">" + content + "</" + db.getTagStr(tag) + ">" + System.lineSeparator());
+    db.snapshotItem(tag, content, hdtNone, -1);
   }
 
 //---------------------------------------------------------------------------
@@ -66,7 +66,7 @@ public class HDI_OfflineConnector extends HDI_OfflineBase
   final List<KeyWork> keyWorks;
   final Map<RecordType, Set<Integer>> usedKeyWorks;
 
-  private static Map<String, DisplayItemType> strToItemType = null;
+  private static final Map<String, DisplayItemType> strToItemType = initMap();
 
 //---------------------------------------------------------------------------
 //---------------------------------------------------------------------------
@@ -90,13 +90,17 @@ public class HDI_OfflineConnector extends HDI_OfflineBase
 //---------------------------------------------------------------------------
 //---------------------------------------------------------------------------
 
-  static private void initMap()
+  // Initialized eagerly because records can be read from XML on more than one thread at a time
+
+  static private Map<String, DisplayItemType> initMap()
   {
-    strToItemType = new HashMap<>();
+    Map<String, DisplayItemType> map = new HashMap<>();
+
+    map.put(DI_TYPE_DESC, diDescription);
+    map.put(DI_TYPE_RECORD, diRecord);
+    map.put(DI_TYPE_KEY_WORKS, diKeyWorks);
 
-    strToItemType.put(DI_TYPE_DESC, diDescription);
-    strToItemType.put(DI_TYPE_RECORD, diRecord);
-    strToItemType.put(DI_TYPE_KEY_WORKS, diKeyWorks);
+    return map;
   }
 
 //---------------------------------------------------------------------------
@@ -113,7 +117,6 @@ public class HDI_OfflineConnector extends HDI_OfflineBase
 
       case tagDisplayRecord :
 
-        if (strToItemType == null) initMap();
         DisplayItemType itemType = strToItemType.get(nodeText);
 
         switch (itemType)
@@ -34,7 +34,6 @@ import org.hypernomicon.model.records.HDT_Record;
 import org.hypernomicon.model.records.RecordState;
 import org.hypernomicon.model.records.HDT_RecordWithConnector;
 import org.hypernomicon.model.records.SimpleRecordTypes.HDT_RecordWithPath;
-import org.hypernomicon.view.mainText.MainTextUtil;
 import org.hypernomicon.model.items.HDI_OfflineConnector.DisplayItem;
 
 //---------------------------------------------------------------------------
@@ -141,7 +140,7 @@ public class HDI_OnlineConnector extends HDI_OnlineBase<HDI_OfflineConnector>
         if (val.htmlText.isEmpty())
           mainText.setInternal("", "");
         else
-          mainText.setInternal(val.htmlText, MainTextUtil.extractTextFromHTML(val.htmlText).trim());
+          mainText.setInternalDeferred(val.htmlText);
     }
   }
 
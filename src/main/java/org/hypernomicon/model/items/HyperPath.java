@@ -185,13 +185,16 @@ public class HyperPath
   {
     dirFilePath = dirFilePath.getDirOnly();
 
+    HDT_Folder folder = db.folderTrie.get(dirFilePath);
+    if (folder != null) return folder;
+
     if (db.getRootPath().isSubpath(dirFilePath) == false)  // the path is not in the database folder tree
       return null;
 
     Set<HyperPath> set = getHyperPathSetForFilePath(dirFilePath);
 
-    HDT_RecordWithPath folder = findFirst(set, hyperPath -> hyperPath.getRecordType() == hdtFolder, HyperPath::getRecord);
-    if (folder != null) return (HDT_Folder) folder;
+    HDT_RecordWithPath folderRecord = findFirst(set, hyperPath -> hyperPath.getRecordType() == hdtFolder, HyperPath::getRecord);
+    if (folderRecord != null) return (HDT_Folder) folderRecord;
 
     if (dirFilePath.exists() == false) return null;
 
@@ -385,8 +388,16 @@ public class HyperPath
     fileName = newFileName;
 
     if (record != null)
+    {
       record.updateSortKey();
 
+      if ((record.getType() == hdtFolder) || (record.getType() == hdtWorkFile))
+        db.markListingChanged(record); // Listed by file name
+
+      if (record.getType() == hdtFolder)
+        db.folderTrie.folderRenamed((HDT_Folder) record);
+    }
+
     if (FilePath.isEmpty(fileName))
       return;
 
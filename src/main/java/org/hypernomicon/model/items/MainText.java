@@ -28,10 +28,14 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Objects;
 import java.util.Set;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
+import org.hypernomicon.model.HyperDB.RelationChange;
 import org.hypernomicon.model.HyperDB.RelationChangeHandler;
 import org.hypernomicon.model.records.*;
 import org.hypernomicon.model.records.SimpleRecordTypes.HDT_RecordWithPath;
@@ -86,18 +90,29 @@ public class MainText
 
   final List<DisplayItem> displayItems;
   final List<KeyWork> keyWorks;  // this can be works or miscFiles
-  private String plainText = "", htmlText = "";
+  private String plainText = "";  // null if it hasn't been extracted from htmlText yet
+  private volatile String htmlText = "";
+  private int[] embeddedFileIDs = new int[0];
   final private Connector connector;
 
   public String getHtml()                         { return htmlText; }
   public HDT_RecordWithConnector getRecord()      { return connector.getSpoke(); }
-  public String getPlain()                        { return plainText; }
+  public synchronized String getPlain()           { finishDeferredSet(); return plainText; }
+  public synchronized int[] getEmbeddedFileIDs()  { finishDeferredSet(); return embeddedFileIDs.clone(); }
   private boolean hasKeyWork(HDT_Record rec)      { return getKeyWork(rec) != null; }
   public List<DisplayItem> getDisplayItemsUnmod() { return Collections.unmodifiableList(displayItems); }
   public List<KeyWork> getKeyWorks()              { return Collections.unmodifiableList(keyWorks); }
   public List<DisplayItem> getDisplayItemsCopy()  { return new ArrayList<>(displayItems); }
   void expire()                                   { removeKeyWorks(false); }
 
+//---------------------------------------------------------------------------
+//---------------------------------------------------------------------------
+
+  public List<HDT_MiscFile> getEmbeddedMiscFiles()
+  {
+    return IntStream.of(getEmbeddedFileIDs()).mapToObj(db.miscFiles::getByID).filter(Objects::nonNull).collect(Collectors.toList());
+  }
+
 //---------------------------------------------------------------------------
 //---------------------------------------------------------------------------
 
@@ -123,7 +138,7 @@ public class MainText
   {
     String keyWorksStr = getKeyWorksString();
 
-    return ultraTrim(plainText + (keyWorksStr.isEmpty() ? "" : " Key works: " + keyWorksStr));
+    return ultraTrim(getPlain() + (keyWorksStr.isEmpty() ? "" : " Key works: " + keyWorksStr));
   }
 
 //---------------------------------------------------------------------------
@@ -131,31 +146,27 @@ public class MainText
 
   public static void init() // called by DB constructor
   {
-    RelationChangeHandler handler = (child, parent, affirm) ->
+    RelationChangeHandler handler = new RelationChangeHandler()
     {
-      HDT_WorkLabel label = (HDT_WorkLabel) parent;
-      MainText mainText = label.getMainText();
-
-      HDT_RecordWithPath kwRecord = (HDT_RecordWithPath) child;
-      KeyWork keyWork = mainText.getKeyWork(kwRecord);
-
-      if (affirm)
+      @Override public void handle(HDT_Record child, HDT_Record parent, boolean affirm)
       {
-        if (keyWork == null)
-        {
-          mainText.keyWorks.add(new KeyWork(kwRecord));
-          mainText.runKeyWorkHandler(kwRecord, true);
-          db.updateMentioner(label);
-        }
+        if (updateLabelKeyWork(child, parent, affirm))
+          db.updateMentioner(parent);
       }
-      else
+
+      // Each label only needs to be reindexed once, however many of its key works changed
+
+      @Override public void handleBatch(List<RelationChange> changes)
       {
-        if (keyWork != null)
+        Set<HDT_Record> changedLabels = new LinkedHashSet<>();
+
+        changes.forEach(change ->
         {
-          mainText.keyWorks.remove(keyWork);
-          mainText.runKeyWorkHandler(kwRecord, false);
-          db.updateMentioner(label);
-        }
+          if (updateLabelKeyWork(change.subject, change.object, change.affirm))
+            changedLabels.add(change.object);
+        });
+
+        changedLabels.forEach(db::updateMentioner);
       }
     };
 
@@ -163,6 +174,35 @@ public class MainText
     db.addRelationChangeHandler(rtLabelOfFile, handler);
   }
 
+//---------------------------------------------------------------------------
+//---------------------------------------------------------------------------
+
+  // Returns true if the label's key works changed
+
+  private static boolean updateLabelKeyWork(HDT_Record child, HDT_Record parent, boolean affirm)
+  {
+    MainText mainText = ((HDT_WorkLabel) parent).getMainText();
+
+    HDT_RecordWithPath kwRecord = (HDT_RecordWithPath) child;
+    KeyWork keyWork = mainText.getKeyWork(kwRecord);
+
+    if (affirm)
+    {
+      if (keyWork != null) return false;
+
+      mainText.keyWorks.add(new KeyWork(kwRecord));
+    }
+    else
+    {
+      if (keyWork == null) return false;
+
+      mainText.keyWorks.remove(keyWork);
+    }
+
+    mainText.runKeyWorkHandler(kwRecord, affirm);
+    return true;
+  }
+
 //---------------------------------------------------------------------------
 //---------------------------------------------------------------------------
 
@@ -218,7 +258,7 @@ public class MainText
         else
           displayItems.add(new DisplayItem(srcItem.type));
 
-        setInternal(mainText.htmlText, extractTextFromHTML(mainText.htmlText).trim());
+        setInternal(mainText.getHtml(), mainText.getPlain());
       });
     }
   }
@@ -301,8 +341,13 @@ public class MainText
   public void setHtml(String newHtml)
   {
     boolean modify = true;
-    String oldPlainText = extractTextFromHTML(htmlText, true).trim(),
-           newPlainText = extractTextFromHTML(newHtml, true).trim();
+    String oldHtml = htmlText,
+           newPlain = extractTextFromHTML(newHtml).trim(),
+
+           // The text for comparison only differs from the plain text if there are embedded files
+
+           oldPlainText = hasEmbeddedFile(htmlText) ? extractTextFromHTML(htmlText, true).trim() : getPlain(),
+           newPlainText = hasEmbeddedFile(newHtml ) ? extractTextFromHTML(newHtml , true).trim() : newPlain;
 
     if (oldPlainText.replaceAll("\\h+", "").equalsIgnoreCase(newPlainText.replaceAll("\\h+", "")))  // Remove all horizontal whitespaces and then compare
       modify = false;
@@ -311,18 +356,25 @@ public class MainText
       if (ultraTrim(convertToSingleLine(oldPlainText)).isEmpty())
         modify = false;
 
-    setInternal(newHtml, extractTextFromHTML(newHtml).trim());
+    setInternal(newHtml, newPlain);
 
-    if (modify == false) return;
+    if (connector == null) return;
 
-    if (connector != null)
+    if (modify)
       connector.modifyNow();
+    else if (htmlText.equals(oldHtml) == false)
+      connector.markDirty(); // e.g., formatting changes
   }
 
 //---------------------------------------------------------------------------
 //---------------------------------------------------------------------------
 
-  void setInternal(String newHtmlText, String newPlainText)
+  private static boolean hasEmbeddedFile(String html) { return html.contains("&lt;" + EMBEDDED_FILE_TAG); }
+
+//---------------------------------------------------------------------------
+//---------------------------------------------------------------------------
+
+  synchronized void setInternal(String newHtmlText, String newPlainText)
   {
     plainText = safeStr(newPlainText);
 
@@ -333,6 +385,27 @@ public class MainText
     }
     else
       htmlText = safeStr(newHtmlText);
+
+    embeddedFileIDs = hasEmbeddedFile(htmlText) ? getEmbeddedMiscFileIDs(htmlText) : new int[0];
+  }
+
+//---------------------------------------------------------------------------
+//---------------------------------------------------------------------------
+
+  // Used when loading records. Extracting the plain text and embedded file IDs is put off until something asks for them,
+  // so that it happens on whichever thread needs it first instead of while the database is loading. Getting the HTML
+  // doesn't need either of them, so it doesn't trigger the extraction.
+
+  synchronized void setInternalDeferred(String newHtmlText)
+  {
+    htmlText = safeStr(newHtmlText);
+    plainText = null;
+  }
+
+  private void finishDeferredSet()
+  {
+    if (plainText == null)
+      setInternal(htmlText, extractTextFromHTML(htmlText).trim());
   }
 
 //---------------------------------------------------------------------------
@@ -405,6 +478,7 @@ public class MainText
 
   public void setDisplayItemsFromList(List<DisplayItem> src)
   {
+    List<DisplayItem> oldList = getDisplayItemsCopy();
     Set<HDT_RecordWithConnector> oldSet = getRecordDisplayItems();
 
     displayItems.clear();
@@ -428,7 +502,10 @@ public class MainText
         modify = true;
       }
 
-    if (modify) connector.modifyNow();
+    if (modify)
+      connector.modifyNow();
+    else if (displayItems.equals(oldList) == false)
+      connector.markDirty(); // Items were reordered, or non-record items were added or removed
   }
 
 //---------------------------------------------------------------------------
@@ -74,6 +74,17 @@ public class StrongLink
     alreadyModifying = false;
   }
 
+//---------------------------------------------------------------------------
+//---------------------------------------------------------------------------
+
+  void markDirty()
+  {
+    if (hub != null) db.markDirty(hdtHub);
+
+    for (Connector spoke : new Connector[] { noteSpoke, conceptSpoke, debateSpoke, positionSpoke, labelSpoke })
+      if (spoke != null) db.markDirty(spoke.getType());
+  }
+
 //---------------------------------------------------------------------------
 //---------------------------------------------------------------------------
 
@@ -160,6 +160,7 @@ public class WorkAuthors extends Authors
     {
       authorList.clear();
       work.modifyNow();
+      db.markListingChanged(work);
     }
 
     allRecords = true;
@@ -217,6 +218,7 @@ public class WorkAuthors extends Authors
     authorList.set(ndx, newAuthor);
 
     work.modifyNow();
+    db.markListingChanged(work);
   }
 
   //---------------------------------------------------------------------------
@@ -302,6 +304,7 @@ public class WorkAuthors extends Authors
 
     authorList.add(new Author(work, name, isEditor, isTrans, inFileName));
     work.modifyNow();
+    db.markListingChanged(work);
   }
 
   //---------------------------------------------------------------------------
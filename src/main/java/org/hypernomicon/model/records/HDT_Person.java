@@ -30,10 +30,12 @@ import org.hypernomicon.model.relations.HyperObjPointer;
 import org.hypernomicon.util.SplitString;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
 
 import javafx.geometry.Rectangle2D;
 
@@ -225,6 +227,7 @@ public class HDT_Person extends HDT_RecordWithConnector implements HDT_RecordWit
 
     private boolean containsKey(String key)           { return keys.containsKey(key); }
     public boolean isSubsetOf(PotentialKeySet keySet) { return keys.keySet().stream().allMatch(keySet::containsKey); }
+    public Set<String> getKeys()                      { return Collections.unmodifiableSet(keys.keySet()); }
 
   //---------------------------------------------------------------------------
 
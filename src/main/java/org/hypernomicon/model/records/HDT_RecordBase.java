@@ -84,7 +84,6 @@ public abstract class HDT_RecordBase implements HDT_Record
   @Override public final boolean hasMainText()          { return this instanceof HDT_RecordWithConnector; }
   @Override public final boolean hasDesc()              { return this instanceof HDT_RecordWithDescription; }
   @Override public final int getID()                    { return id; }
-  @Override public final void viewNow()                 { if (db.viewTestingInProgress == false) viewDate = Instant.now(); }
   @Override public final String getSortKeyAttr()        { return sortKeyAttr; }
   @Override public final String getSortKey()            { return dataset.getKeyByID(id); }
   @Override public final boolean isExpired()            { return expired; }
@@ -153,8 +152,16 @@ public abstract class HDT_RecordBase implements HDT_Record
 
   protected void setNameInternal(String str, boolean update)
   {
-    name.set(update ? updateString(name.get(), str) : safeStr(str));
+    String oldName = name.get();
+
+    name.set(update ? updateString(oldName, str) : safeStr(str));
     updateSortKey();
+
+    if (name.get().equals(oldName) == false)
+    {
+      db.markDirtyWithReferencers(type); // Name is written to XML of records that point to this one
+      db.markListingChanged(this);
+    }
   }
 
 //---------------------------------------------------------------------------
@@ -211,17 +218,33 @@ public abstract class HDT_RecordBase implements HDT_Record
 
     items.values().forEach(HDI_OnlineBase::expire);
 
+    db.markDirty(type);
+    db.markListingChanged(this);
+
     id = -1;
     expired = true;
 
     db.setResolvePointersAgain();
   }
 
+//---------------------------------------------------------------------------
+//---------------------------------------------------------------------------
+
+  @Override public final void viewNow()
+  {
+    if (db.viewTestingInProgress) return;
+
+    viewDate = Instant.now();
+    db.markDirty(type);
+  }
+
 //---------------------------------------------------------------------------
 //---------------------------------------------------------------------------
 
   @Override public void modifyNow()
   {
+    db.markDirty(type);
+
     if (db.runningConversion == false)
     {
       modifiedDate = Instant.now();
@@ -246,6 +269,10 @@ public abstract class HDT_RecordBase implements HDT_Record
     id = newID;
     dataset.changeRecordID(oldID, newID);
 
+    db.markDirtyWithReferencers(type);
+    db.markConnectorTypesDirty(); // Key works and display items point to records by ID
+    db.markListingChanged(type);
+
     return true;
   }
 
@@ -276,6 +303,8 @@ public abstract class HDT_RecordBase implements HDT_Record
     }
 
     online = true;
+    db.markDirty(type);
+    db.markListingChanged(this);
 
     if (type.getDisregardDates() == false)
     {
@@ -370,6 +399,8 @@ public abstract class HDT_RecordBase implements HDT_Record
     val = safeStr(val);
     if (dest.replace("\r", "").equalsIgnoreCase(val.replace("\r", "")) == false)
       modifyNow();
+    else if (dest.equals(val) == false)
+      db.markDirty(type); // Doesn't count as a modification, but still has to be saved
 
     return val;
   }
@@ -380,6 +411,7 @@ public abstract class HDT_RecordBase implements HDT_Record
   protected final void updateBibEntryKey(String val) // No need to change modified date for record
   {
     ((HDI_OnlineBibEntryKey)(items.get(tagBibEntryKey))).set(val);
+    db.markDirty(type);
   }
 
 //---------------------------------------------------------------------------
@@ -104,12 +104,22 @@ public class HDT_Work extends HDT_RecordWithConnector implements HDT_RecordWithP
   public int getEndPageNum()     { return workFiles.isEmpty() ? -1 : getEndPageNum(workFiles.get(0)); }
   public boolean canLaunch()     { return ! (getPath().isEmpty() && getURL().isEmpty()); }
 
-  public void setYear(String str)        { updateTagString(tagYear, str); }
   public void setBibEntryKey(String str) { updateBibEntryKey(str); }
   public void setMiscBib(String str)     { updateTagString(tagMiscBib, str); }
   public void setDOI(String str)         { updateTagString(tagDOI, matchDOI(str)); }
   public void setURL(String str)         { updateTagString(tagWebURL, str); }
 
+//---------------------------------------------------------------------------
+//---------------------------------------------------------------------------
+
+  public void setYear(String str)
+  {
+    if (getYear().equals(safeStr(str)) == false)
+      db.markListingChanged(this); // The year is part of how works are listed
+
+    updateTagString(tagYear, str);
+  }
+
 //---------------------------------------------------------------------------
 //---------------------------------------------------------------------------
 
@@ -139,16 +139,35 @@ public class RecordState
   {
     stored = true;
 
-    if (type.isSimple()) { writeWholeRecord(xml, simpleName, listName); return; }
+    if (type.isSimple())
+    {
+      db.snapshotRecord(type, id, sortKeyAttr, searchKey, listName);
+      db.snapshotItem(tagNone, xmlContentEscaper.escape(simpleName), hdtNone, -1);
+
+      writeWholeRecord(xml, simpleName, listName);
+      return;
+    }
+
+    db.snapshotRecord(type, id, sortKeyAttr, type == hdtWorkLabel ? "" : searchKey, "");
 
     writeRecordOpenTag(xml);
 
+    if (creationDate != null)
+      db.snapshotDates(creationDate, modifiedDate, viewDate);
+
+    int length = xml.length();
+
     items.forEach((tag, item) ->
     {
       if ((type != hdtFolder) || (tag != tagName))
         item.writeToXml(tag, xml);
     });
 
+    // A record with no tags inside it is read back in as one untagged item
+
+    if ((creationDate == null) && (xml.length() == length))
+      db.snapshotItem(tagNone, System.lineSeparator(), hdtNone, -1);
+
     xml.append("</record>" + System.lineSeparator() + System.lineSeparator());
   }
 
@@ -20,6 +20,7 @@ package org.hypernomicon.model.relations;
 import org.hypernomicon.model.HDI_Schema;
 import org.hypernomicon.model.Exceptions.HDB_InternalError;
 import org.hypernomicon.model.Exceptions.RelationCycleException;
+import org.hypernomicon.model.HyperDB.RelationChange;
 import org.hypernomicon.model.HyperDB.RelationChangeHandler;
 import org.hypernomicon.model.HyperDB.Tag;
 import org.hypernomicon.model.items.*;
@@ -29,10 +30,13 @@ import org.hypernomicon.model.records.HDT_RecordBase.*;
 import org.hypernomicon.util.EnumBasedTable;
 
 import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.HashMultimap;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Deque;
 import java.util.EnumMap;
 import java.util.EnumSet;
 import java.util.Iterator;
@@ -66,14 +70,26 @@ public final class RelationSet<HDT_Subj extends HDT_Record, HDT_Obj extends HDT_
   private final Set<HDT_Subj> orphans = new HashSet<>();
   private ArrayListMultimap<HDT_Obj, HDT_Subj> objToSubjList = ArrayListMultimap.create();
   private ArrayListMultimap<HDT_Subj, HDT_Obj> subjToObjList = ArrayListMultimap.create();
+
+  // Same entries as the list multimaps, for constant-time membership checks; the lists keep the user-defined order
+
+  private HashMultimap<HDT_Obj, HDT_Subj> objToSubjSet = HashMultimap.create();
+  private HashMultimap<HDT_Subj, HDT_Obj> subjToObjSet = HashMultimap.create();
   private final HashBasedTable<HDT_Subj, HDT_Obj, Map<Tag, HDI_OnlineBase<? extends HDI_OfflineBase>>> objectGroups = HashBasedTable.create();
   private final Map<Tag, HDI_Schema> tagToSchema = new LinkedHashMap<>();
   private final Map<Tag, RecordType> tagToTargetType = new EnumMap<>(Tag.class);
   private final List<RelationChangeHandler> changeHandlers = new ArrayList<>();
 
   private static final EnumMap<RecordType, Set<RelationSet<? extends HDT_Record, ? extends HDT_Record>>> orphanTypeToRelSets = new EnumMap<>(RecordType.class);
+  private static final List<QueuedChange> queuedChanges = new ArrayList<>();
   private static final EnumBasedTable<RecordType, RecordType, RelationType> typeMappings = new EnumBasedTable<>(RecordType.class, RecordType.class);
 
+  // Relations that are part of how the subject is listed, e.g., a work's authors, and ones that can change how
+  // other records of the subject or object type are listed, e.g., a sub-label's listing includes its parent's name
+
+  private static final EnumSet<RelationType> subjListingRelations = EnumSet.of(rtAuthorOfWork, rtAuthorOfFile, rtGlossaryOfConcept),
+                                             typeListingRelations = EnumSet.of(rtParentLabelOfLabel, rtParentInstOfInst, rtTypeOfInst, rtConceptOfTerm);
+
   private final RelationType type;
   private final RecordType objType, subjType;
   private final boolean hasNestedItems, trackOrphans;
@@ -88,6 +104,7 @@ public final class RelationSet<HDT_Subj extends HDT_Record, HDT_Obj extends HDT_
   public void addChangeHandler(RelationChangeHandler rch) { changeHandlers.add(rch); }
   public Set<HDT_Subj> getOrphans()                       { return ImmutableSet.copyOf(orphans); } // Make a new copy of the set to prevent concurrent modification exception
   private void addObjAndMod(HDT_Subj subj, HDT_Obj obj)   { new HyperObjList<>(this, subj, true).add(obj); }
+  private void markDirty()                                { db.markDirty(subjType); db.markDirty(objType); }
   List<HDT_Obj> getUnmodifiableObjectList(HDT_Subj subj)  { return Collections.unmodifiableList(subjToObjList.get(subj)); }
   List<HDT_Subj> getUnmodifiableSubjectList(HDT_Obj obj)  { return Collections.unmodifiableList(objToSubjList.get(obj)); }
   int getSubjectCount(HDT_Obj obj)                        { return objToSubjList.get(obj).size(); }
@@ -96,8 +113,24 @@ public final class RelationSet<HDT_Subj extends HDT_Record, HDT_Obj extends HDT_
   int getSubjectNdx(HDT_Obj obj, HDT_Subj subj)           { return objToSubjList.get(obj).indexOf(subj); }
   int getObjectNdx(HDT_Subj subj, HDT_Obj obj)            { return subjToObjList.get(subj).indexOf(obj); }
   HDT_Obj getObject(HDT_Subj subj, int ndx)               { return subjToObjList.get(subj).get(ndx); }
-  boolean alreadyHasAsObject(HDT_Subj subj, HDT_Obj obj)  { return subjToObjList.containsEntry(subj, obj); }
-  boolean alreadyHasAsSubject(HDT_Obj obj, HDT_Subj subj) { return objToSubjList.containsEntry(obj, subj); }
+  boolean alreadyHasAsObject(HDT_Subj subj, HDT_Obj obj)  { return subjToObjSet.containsEntry(subj, obj); }
+  boolean alreadyHasAsSubject(HDT_Obj obj, HDT_Subj subj) { return objToSubjSet.containsEntry(obj, subj); }
+
+//---------------------------------------------------------------------------
+//---------------------------------------------------------------------------
+
+  private void markDirty(HDT_Subj subj)
+  {
+    markDirty();
+
+    if (subjListingRelations.contains(type))
+      db.markListingChanged(subj);
+    else if (typeListingRelations.contains(type))
+    {
+      db.markListingChanged(subjType);
+      db.markListingChanged(objType);
+    }
+  }
 
 //---------------------------------------------------------------------------
 //---------------------------------------------------------------------------
@@ -320,7 +353,10 @@ public final class RelationSet<HDT_Subj extends HDT_Record, HDT_Obj extends HDT_
     }
 
     HDI_OnlineBase<HDI_Offline> item = getNestedItem(subj, obj, tag, isEmpty);
-    if (item != null) item.setFromOfflineValue(value, tag);
+    if (item == null) return;
+
+    item.setFromOfflineValue(value, tag);
+    markDirty(subj);
   }
 
 //---------------------------------------------------------------------------
@@ -341,6 +377,7 @@ public final class RelationSet<HDT_Subj extends HDT_Record, HDT_Obj extends HDT_
     if ((item == null) || item.get().equals(str)) return false;
 
     item.set(str);
+    markDirty(subj);
     return true;
   }
 
@@ -361,6 +398,7 @@ public final class RelationSet<HDT_Subj extends HDT_Record, HDT_Obj extends HDT_
     if ((item == null) || (item.get() == bool)) return false;
 
     item.set(bool);
+    markDirty(subj);
     return true;
   }
 
@@ -381,6 +419,7 @@ public final class RelationSet<HDT_Subj extends HDT_Record, HDT_Obj extends HDT_
     if ((item == null) || (item.get() == ternary)) return false;
 
     item.set(ternary);
+    markDirty(subj);
     return true;
   }
 
@@ -401,6 +440,7 @@ public final class RelationSet<HDT_Subj extends HDT_Record, HDT_Obj extends HDT_
     if ((item == null) || (item.get() == target)) return false;
 
     item.set(target);
+    markDirty(subj);
     return true;
   }
 
@@ -436,8 +476,12 @@ public final class RelationSet<HDT_Subj extends HDT_Record, HDT_Obj extends HDT_
     objSet.forEach(obj -> list.add(new ObjectGroup(obj)));
 
     List<HDT_Obj> origList = subjToObjList.get(subj);
+    Map<HDT_Record, Integer> objToNdx = new HashMap<>();
+
+    for (int ndx = 0; ndx < origList.size(); ndx++)
+      objToNdx.putIfAbsent(origList.get(ndx), ndx);
 
-    list.sort(sortBasis(og -> origList.indexOf(og.getPrimary())));
+    list.sort(sortBasis(og -> objToNdx.getOrDefault(og.getPrimary(), -1)));
     
     return list;
   }
@@ -580,38 +624,39 @@ public final class RelationSet<HDT_Subj extends HDT_Record, HDT_Obj extends HDT_
       }
 
       // Add the object to the object list if not already there
-      if (objList.contains(obj)) return;
+      if (subjToObjSet.put(subj, obj) == false) return;
 
       if (ndx == -1) objList.add(obj);
       else           objList.add(ndx, obj);
 
       objToSubjList.put(obj, subj);
+      objToSubjSet.put(obj, subj);
 
       orphans.remove(subj);
+      markDirty(subj);
 
-      Platform.runLater(() -> changeHandlers.forEach(handler -> handler.handle(subj, obj, true)));
+      queueChange(subj, obj, true);
 
       return;
     }
 
     // Remove the object from the object list if it was there
-    if (objList.contains(obj))
+    if (subjToObjSet.remove(subj, obj))
     {
-      if (ndx == -1) objList.remove(obj); // removes first occurrence
-      else           objList.remove(ndx);
+      removeFromList(objList, obj, ndx);
 
-      if (objList.contains(obj) == false)
-      {
-        objToSubjList.remove(obj, subj);
+      markDirty(subj);
 
-        if (HDT_Record.isEmpty(subj) == false) // skip if record is in the process of being deleted
-        {
-          if (trackOrphans && objList.isEmpty() && (isUnstoredRecord(subj.getID(), subjType) == false))
-            orphans.add(subj);
+      if (objToSubjSet.remove(obj, subj))
+        removeFromList(objToSubjList.get(obj), subj, -1);
 
-          if ((HDT_Record.isEmpty(subj) == false) && (HDT_Record.isEmpty(obj) == false))  // Only run change handlers if the record is not in the process of being deleted
-            Platform.runLater(() -> changeHandlers.forEach(handler -> handler.handle(subj, obj, false)));
-        }
+      if (HDT_Record.isEmpty(subj) == false) // skip if record is in the process of being deleted
+      {
+        if (trackOrphans && objList.isEmpty() && (isUnstoredRecord(subj.getID(), subjType) == false))
+          orphans.add(subj);
+
+        if ((HDT_Record.isEmpty(subj) == false) && (HDT_Record.isEmpty(obj) == false))  // Only run change handlers if the record is not in the process of being deleted
+          queueChange(subj, obj, false);
       }
     }
 
@@ -626,15 +671,110 @@ public final class RelationSet<HDT_Subj extends HDT_Record, HDT_Obj extends HDT_
 //---------------------------------------------------------------------------
 //---------------------------------------------------------------------------
 
+  // A record only appears once in a list, so the search stops at the first match, and records are compared by
+  // identity. The index is tried first if it is valid.
+
+  private static <T> void removeFromList(List<T> list, T item, int ndx)
+  {
+    if ((ndx < 0) || (ndx >= list.size()) || (list.get(ndx) != item))
+    {
+      for (ndx = list.size() - 1; ndx >= 0; ndx--)
+        if (list.get(ndx) == item) break;
+
+      if (ndx < 0) return;
+    }
+
+    list.remove(ndx);
+  }
+
+//---------------------------------------------------------------------------
+//---------------------------------------------------------------------------
+
+  private static final class QueuedChange
+  {
+    private final RelationSet<? extends HDT_Record, ? extends HDT_Record> relSet;
+    private final RelationChange change;
+
+    private QueuedChange(RelationSet<? extends HDT_Record, ? extends HDT_Record> relSet, RelationChange change)
+    {
+      this.relSet = relSet;
+      this.change = change;
+    }
+  }
+
+//---------------------------------------------------------------------------
+//---------------------------------------------------------------------------
+
+  // Changes are queued so that a bulk operation posts one runnable to the FX thread instead of one per change
+
+  private void queueChange(HDT_Subj subj, HDT_Obj obj, boolean affirm)
+  {
+    if (changeHandlers.isEmpty()) return;
+
+    synchronized (queuedChanges)
+    {
+      if (queuedChanges.isEmpty())
+        Platform.runLater(RelationSet::deliverQueuedChanges);
+
+      queuedChanges.add(new QueuedChange(this, new RelationChange(subj, obj, affirm)));
+    }
+  }
+
+//---------------------------------------------------------------------------
+//---------------------------------------------------------------------------
+
+  // Each run of consecutive changes to the same relation is handed to its handlers as one batch
+
+  private static void deliverQueuedChanges()
+  {
+    List<QueuedChange> changes;
+
+    synchronized (queuedChanges)
+    {
+      changes = new ArrayList<>(queuedChanges);
+      queuedChanges.clear();
+    }
+
+    int startNdx = 0;
+
+    while (startNdx < changes.size())
+    {
+      RelationSet<? extends HDT_Record, ? extends HDT_Record> relSet = changes.get(startNdx).relSet;
+      List<RelationChange> batch = new ArrayList<>();
+
+      for (; (startNdx < changes.size()) && (changes.get(startNdx).relSet == relSet); startNdx++)
+        batch.add(changes.get(startNdx).change);
+
+      List<RelationChange> unmodBatch = Collections.unmodifiableList(batch);
+      relSet.changeHandlers.forEach(handler -> handler.handleBatch(unmodBatch));
+    }
+  }
+
+//---------------------------------------------------------------------------
+//---------------------------------------------------------------------------
+
+  // Throws if subj can already be reached by following objects starting from obj. Each record is only
+  // visited once, so hierarchies where the same record can be reached more than one way stay linear.
+
   @SuppressWarnings("unchecked")
   private void cycleCheck(HDT_Subj subj, HDT_Subj obj, HDT_Obj origObj) throws RelationCycleException
   {
-    for (HDT_Obj nextObj : subjToObjList.get(obj))
+    Set<HDT_Record> visited = new HashSet<>();
+    Deque<HDT_Subj> stack = new ArrayDeque<>();
+
+    visited.add(obj);
+    stack.push(obj);
+
+    while (stack.isEmpty() == false)
     {
-      if (nextObj == subj)
-        throw new RelationCycleException(subj, origObj);
+      for (HDT_Obj nextObj : subjToObjList.get(stack.pop()))
+      {
+        if (nextObj == subj)
+          throw new RelationCycleException(subj, origObj);
 
-      cycleCheck(subj, (HDT_Subj) nextObj, origObj);
+        if (visited.add(nextObj))
+          stack.push((HDT_Subj) nextObj);
+      }
     }
   }
 
@@ -679,6 +819,8 @@ public final class RelationSet<HDT_Subj extends HDT_Record, HDT_Obj extends HDT_
   {
     subjToObjList = rebuildMultimap(subjToObjList);
     objToSubjList = rebuildMultimap(objToSubjList);
+    subjToObjSet = HashMultimap.create(subjToObjList);
+    objToSubjSet = HashMultimap.create(objToSubjList);
 
     Iterator<HDT_Subj> orphanIt = orphans.iterator();
     while (orphanIt.hasNext())
@@ -860,25 +1002,36 @@ public final class RelationSet<HDT_Subj extends HDT_Record, HDT_Obj extends HDT_
 //---------------------------------------------------------------------------
 //---------------------------------------------------------------------------
 
-  void reorderObjects (HDT_Subj subj, List<HDT_Obj>  newObjList)  { reorderList(subj, newObjList,  subjToObjList); }
-  void reorderSubjects(HDT_Obj   obj, List<HDT_Subj> newSubjList) { reorderList(obj,  newSubjList, objToSubjList); }
+  void reorderObjects(HDT_Subj subj, List<HDT_Obj> newObjList)
+  {
+    if (reorderList(subj, newObjList, subjToObjList))
+      markDirty(subj); // The order of a work's authors is part of how it is listed
+  }
+
+  void reorderSubjects(HDT_Obj obj, List<HDT_Subj> newSubjList)
+  {
+    if (reorderList(obj, newSubjList, objToSubjList))
+      markDirty();
+  }
 
-  private <HDT_Key extends HDT_Record, HDT_Value extends HDT_Record> void reorderList(HDT_Key key, List<HDT_Value> newValueList, ArrayListMultimap<HDT_Key, HDT_Value> map)
+  private <HDT_Key extends HDT_Record, HDT_Value extends HDT_Record> boolean reorderList(HDT_Key key, List<HDT_Value> newValueList, ArrayListMultimap<HDT_Key, HDT_Value> map)
   {
     if (key == null) throw new NullPointerException();
 
-    if (map.containsKey(key) == false) return;
+    if (map.containsKey(key) == false) return false;
 
     List<HDT_Value> existingValueList = map.get(key);
 
-    if (existingValueList.size() != newValueList.size()) return;
+    if (existingValueList.size() != newValueList.size()) return false;
 
     if ((newValueList     .stream().allMatch(existingValueList::contains) == false) ||
         (existingValueList.stream().allMatch(newValueList     ::contains) == false))
-      return;
+      return false;
 
     for (int ndx = 0; ndx < existingValueList.size(); ndx++)
       existingValueList.set(ndx, newValueList.get(ndx));
+
+    return true;
   }
 
 //---------------------------------------------------------------------------
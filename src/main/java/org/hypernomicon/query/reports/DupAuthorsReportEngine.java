@@ -28,12 +28,12 @@ import static org.hypernomicon.view.wrappers.HyperTableColumn.HyperCtrlType.*;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 
 import org.hypernomicon.HyperTask;
 import org.hypernomicon.dialogs.NewPersonDlgCtrlr;
+import org.hypernomicon.dialogs.NewPersonDlgCtrlr.DupCheckIndex;
 import org.hypernomicon.dialogs.NewPersonDlgCtrlr.PersonForDupCheck;
 import org.hypernomicon.model.Exceptions.TerminateTaskException;
 import org.hypernomicon.model.items.Author;
@@ -73,25 +73,12 @@ public class DupAuthorsReportEngine extends ReportEngine
     if (db.isLoaded() == false) return;
 
     Map<Author, List<Author>> matchMap = new LinkedHashMap<>();
-    LinkedList<PersonForDupCheck> list = createListForDupCheck();
+    List<PersonForDupCheck> list = createListForDupCheck();
+    List<List<Author>> allMatches = new DupCheckIndex(list).findAllMatches(task);
 
-    PersonForDupCheck person = list.poll();
-
-    int ndx = 0, total = list.size();
-    total = total * (total + 1) / 2;
-
-    while (list.size() > 0)
-    {
-      List<Author> matchedAuthors = new ArrayList<>();
-      doDupCheck(person, list, matchedAuthors, task, ndx, total);
-
-      if (matchedAuthors.size() > 0)
-        matchMap.put(person.getAuthor(), matchedAuthors);
-
-      ndx = ndx + list.size();
-
-      person = list.poll();
-    }
+    for (int ndx = 0; ndx < list.size(); ndx++)
+      if (allMatches.get(ndx).size() > 0)
+        matchMap.put(list.get(ndx).getAuthor(), allMatches.get(ndx));
 
     rows.clear();
     rowToMatch.clear();
@@ -145,7 +145,7 @@ class TreeCB
 
   void checkIfShouldBeRemoved(HDT_Record record)
   {
-    if (tree.getRowsForRecord(record).isEmpty() == false) return;
+    if (tree.isInTree(record)) return;
 
     changeIsProgrammatic = true;
     rows.remove(recordToRow.get(record));
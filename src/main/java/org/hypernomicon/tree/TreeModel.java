@@ -20,9 +20,13 @@ package org.hypernomicon.tree;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Set;
 
+import org.hypernomicon.model.HyperDB.RelationChange;
+import org.hypernomicon.model.HyperDB.RelationChangeHandler;
 import org.hypernomicon.model.records.HDT_Record;
 import org.hypernomicon.model.records.RecordType;
 import org.hypernomicon.model.relations.RelationSet.RelationType;
@@ -32,6 +36,7 @@ import com.google.common.collect.LinkedHashMultimap;
 import com.google.common.collect.SetMultimap;
 import com.google.common.collect.ImmutableSet;
 
+import javafx.collections.ObservableList;
 import javafx.scene.control.TreeItem;
 
 import static org.hypernomicon.model.HyperDB.*;
@@ -44,13 +49,21 @@ public class TreeModel<RowType extends AbstractTreeRow<? extends HDT_Record, Row
   final private MappingFromRecordToRows recordToRows;
   final private AbstractTreeWrapper<RowType> treeWrapper;
   final private Set<RecordType> recordTypes = EnumSet.noneOf(RecordType.class);
+  final private Set<HDT_Record> recordsInTree = new HashSet<>();
+  final private TreeCB tcb;
 
   private RowType rootRow;
   public boolean pruningOperationInProgress = false;
 
+  // While a batch of relation changes is being handled, records that lost a parent are collected here and checked
+  // once at the end, instead of after each removal, since each check walks all of the record's descendants
+
+  private Set<HDT_Record> pendingRechecks = null;
+
   public void expandMainBranch()                          { rootRow.treeItem.setExpanded(true); }
   Set<RecordType> getRecordTypes()                        { return Collections.unmodifiableSet(recordTypes); }
-  public Set<RowType> getRowsForRecord(HDT_Record record) { return recordToRows.getRowsForRecord(record); }
+  boolean isInTree(HDT_Record record)                     { return recordsInTree.contains(record); }
+  public TreeItem<RowType> newTreeItem(RowType row)       { return new LazyTreeItem(row); }
 
 //---------------------------------------------------------------------------
 //---------------------------------------------------------------------------
@@ -58,50 +71,55 @@ public class TreeModel<RowType extends AbstractTreeRow<? extends HDT_Record, Row
   private class MappingFromRecordToRows
   {
     final private SetMultimap<HDT_Record, RowType> recordToRows = LinkedHashMultimap.create();
-    final private TreeCB tcb;
 
     //---------------------------------------------------------------------------
 
-    private MappingFromRecordToRows(TreeCB tcb)              { this.tcb = tcb; }
     private Set<RowType> getRowsForRecord(HDT_Record record) { return recordToRows.get(record); }
     private void clear()                                     { recordToRows.clear(); }
+    private void addRow(RowType row)                         { recordToRows.put(row.getRecord(), row); }
+    private void removeRow(RowType row)                      { recordToRows.remove(row.getRecord(), row); }
+  }
 
-    //---------------------------------------------------------------------------
-    //---------------------------------------------------------------------------
+//---------------------------------------------------------------------------
+//---------------------------------------------------------------------------
+
+  // Rows and tree items for the children of a record are only created once its tree item is expanded,
+  // or something else asks for its children. parentToChildren is always complete.
+
+  private final class LazyTreeItem extends TreeItem<RowType>
+  {
+    private boolean loaded = false;
+
+    private LazyTreeItem(RowType row) { super(row); }
 
-    private void addRow(RowType row)
+    @Override public ObservableList<TreeItem<RowType>> getChildren()
     {
-      HDT_Record record = row.getRecord();
+      if (loaded == false)
+      {
+        loaded = true;
 
-      if ((tcb != null) && (recordToRows.containsKey(record) == false))
-        tcb.add(record);
+        parentToChildren.getForwardSet(getValue().getRecord()).forEach(child ->
+          insertTreeItem(super.getChildren(), newChildRow(child)));
+      }
 
-      recordToRows.put(record, row);
+      return super.getChildren();
     }
 
-    //---------------------------------------------------------------------------
-    //---------------------------------------------------------------------------
-
-    private void removeRow(RowType row)
+    @Override public boolean isLeaf()
     {
-      HDT_Record record = row.getRecord();
-
-      if (recordToRows.remove(record, row) && (tcb != null))
-        tcb.checkIfShouldBeRemoved(record);
+      return loaded ? super.isLeaf() : parentToChildren.getForwardSet(getValue().getRecord()).isEmpty();
     }
   }
 
-//---------------------------------------------------------------------------
-//---------------------------------------------------------------------------
-
 //---------------------------------------------------------------------------
 //---------------------------------------------------------------------------
 
   public TreeModel(AbstractTreeWrapper<RowType> treeWrapper, TreeCB tcb)
   {
     parentToChildren = new BidiOneToManyRecordMap();
-    recordToRows = new MappingFromRecordToRows(tcb);
+    recordToRows = new MappingFromRecordToRows();
     this.treeWrapper = treeWrapper;
+    this.tcb = tcb;
   }
 
 //---------------------------------------------------------------------------
@@ -111,6 +129,7 @@ public class TreeModel<RowType extends AbstractTreeRow<? extends HDT_Record, Row
   {
     parentToChildren.clear();
     recordToRows.clear();
+    recordsInTree.clear();
     rootRow = null;
   }
 
@@ -124,6 +143,37 @@ public class TreeModel<RowType extends AbstractTreeRow<? extends HDT_Record, Row
     rootRow = treeWrapper.newRow(rootRecord, this);
     treeWrapper.getRoot().getChildren().add(treeWrapper.getTreeItem(rootRow));
     recordToRows.addRow(rootRow);
+    addToTree(rootRecord);
+  }
+
+//---------------------------------------------------------------------------
+//---------------------------------------------------------------------------
+
+  public boolean childrenLoaded(TreeItem<RowType> item)
+  {
+    return (item instanceof TreeModel.LazyTreeItem) == false || ((LazyTreeItem) item).loaded;
+  }
+
+//---------------------------------------------------------------------------
+//---------------------------------------------------------------------------
+
+  // Creates any rows for the record that haven't been created yet because their branches were never expanded
+
+  public Set<RowType> getRowsForRecord(HDT_Record record)
+  {
+    loadRowsForRecord(record, new HashSet<>());
+    return recordToRows.getRowsForRecord(record);
+  }
+
+  private void loadRowsForRecord(HDT_Record record, Set<HDT_Record> alreadyLoaded)
+  {
+    if ((recordsInTree.contains(record) == false) || (alreadyLoaded.add(record) == false)) return;
+
+    parentToChildren.getReverseSet(record).forEach(parent ->
+    {
+      loadRowsForRecord(parent, alreadyLoaded);
+      new ArrayList<>(recordToRows.getRowsForRecord(parent)).forEach(row -> treeWrapper.getTreeItem(row).getChildren());
+    });
   }
 
 //---------------------------------------------------------------------------
@@ -145,6 +195,51 @@ public class TreeModel<RowType extends AbstractTreeRow<? extends HDT_Record, Row
         dest.assignParent(child, parent)));
   }
 
+//---------------------------------------------------------------------------
+//---------------------------------------------------------------------------
+
+  // A record is in the tree if it is the root or one of its parents is in the tree. This is what rows would
+  // exist for if every branch were expanded, so the tree combo box goes by this instead of by the rows.
+
+  private void addToTree(HDT_Record record)
+  {
+    if (recordsInTree.add(record) == false) return;
+
+    if (tcb != null) tcb.add(record);
+
+    parentToChildren.getForwardSet(record).forEach(this::addToTree);
+  }
+
+//---------------------------------------------------------------------------
+//---------------------------------------------------------------------------
+
+  // Called after the record lost a parent. Takes it and its descendants out of the tree, then puts back
+  // the ones that can still be reached some other way.
+
+  private void recheckInTree(HDT_Record record)
+  {
+    Set<HDT_Record> affected = new HashSet<>();
+    collectDescendantsInTree(record, affected);
+
+    recordsInTree.removeAll(affected);
+
+    affected.forEach(curRecord ->
+    {
+      if ((curRecord == rootRow.getRecord()) || parentToChildren.getReverseSet(curRecord).stream().anyMatch(recordsInTree::contains))
+        addToTree(curRecord);
+    });
+
+    if (tcb != null)
+      affected.stream().filter(curRecord -> recordsInTree.contains(curRecord) == false).forEach(tcb::checkIfShouldBeRemoved);
+  }
+
+  private void collectDescendantsInTree(HDT_Record record, Set<HDT_Record> descendants)
+  {
+    if ((recordsInTree.contains(record) == false) || (descendants.add(record) == false)) return;
+
+    parentToChildren.getForwardSet(record).forEach(child -> collectDescendantsInTree(child, descendants));
+  }
+
 //---------------------------------------------------------------------------
 //---------------------------------------------------------------------------
 
@@ -152,19 +247,31 @@ public class TreeModel<RowType extends AbstractTreeRow<? extends HDT_Record, Row
   {
     if (parentToChildren.getForwardSet(parent).contains(child) == false) return;
 
-    new ArrayList<>(recordToRows.getRowsForRecord(parent)).forEach(row -> row.treeItem.getChildren().removeIf(childItem ->
+    new ArrayList<>(recordToRows.getRowsForRecord(parent)).forEach(row ->
     {
-      RowType childRow = childItem.getValue();
+      if (childrenLoaded(row.treeItem) == false) return;
 
-      if (childRow.getRecord() != child) return false;
+      row.treeItem.getChildren().removeIf(childItem ->
+      {
+        RowType childRow = childItem.getValue();
 
-      removeChildRows(childRow);
-      recordToRows.removeRow(childRow);
+        if (childRow.getRecord() != child) return false;
 
-      return pruningOperationInProgress == false;  // prevent ConcurrentModificationException
-    }));
+        removeChildRows(childRow);
+        recordToRows.removeRow(childRow);
+
+        return pruningOperationInProgress == false;  // prevent ConcurrentModificationException
+      });
+    });
 
     parentToChildren.removeForward(parent, child);
+
+    if (recordsInTree.contains(child) == false) return;
+
+    if (pendingRechecks != null)
+      pendingRechecks.add(child);
+    else
+      recheckInTree(child);
   }
 
 //---------------------------------------------------------------------------
@@ -172,6 +279,8 @@ public class TreeModel<RowType extends AbstractTreeRow<? extends HDT_Record, Row
 
   private void removeChildRows(RowType parentRow)
   {
+    if (childrenLoaded(parentRow.treeItem) == false) return;
+
     parentRow.treeItem.getChildren().removeIf(childItem ->
     {
       RowType childRow = childItem.getValue();
@@ -194,34 +303,34 @@ public class TreeModel<RowType extends AbstractTreeRow<? extends HDT_Record, Row
 
     new ArrayList<>(recordToRows.getRowsForRecord(parent)).forEach(row ->
     {
-      RowType childRow = treeWrapper.newRow(child, this);
+      TreeItem<RowType> item = treeWrapper.getTreeItem(row);
 
-      insertTreeItem(treeWrapper.getTreeItem(row).getChildren(), childRow);
-      recordToRows.addRow(childRow);
-      addChildRows(childRow);
+      if (childrenLoaded(item))
+        insertTreeItem(item.getChildren(), newChildRow(child));
+      else if (parentToChildren.getForwardSet(parent).size() == 1)
+        item.getChildren(); // The item was a leaf, so load its one child now to update how it is displayed
     });
+
+    if (recordsInTree.contains(parent))
+      addToTree(child);
   }
 
 //---------------------------------------------------------------------------
 //---------------------------------------------------------------------------
 
-  private void insertTreeItem(List<TreeItem<RowType>> list, RowType newRow)
+  private RowType newChildRow(HDT_Record child)
   {
-    addToSortedList(list, treeWrapper.getTreeItem(newRow), sortBasis(TreeItem::getValue));
+    RowType childRow = treeWrapper.newRow(child, this);
+    recordToRows.addRow(childRow);
+    return childRow;
   }
 
 //---------------------------------------------------------------------------
 //---------------------------------------------------------------------------
 
-  private void addChildRows(RowType parentRow)
+  private void insertTreeItem(List<TreeItem<RowType>> list, RowType newRow)
   {
-    parentToChildren.getForwardSet(parentRow.getRecord()).forEach(child ->
-    {
-      RowType childRow = treeWrapper.newRow(child, this);
-      recordToRows.addRow(childRow);
-      insertTreeItem(treeWrapper.getTreeItem(parentRow).getChildren(), childRow);
-      addChildRows(childRow);
-    });
+    addToSortedList(list, treeWrapper.getTreeItem(newRow), sortBasis(TreeItem::getValue));
   }
 
 //---------------------------------------------------------------------------
@@ -231,18 +340,40 @@ public class TreeModel<RowType extends AbstractTreeRow<? extends HDT_Record, Row
   {
     recordTypes.addAll(EnumSet.of(db.getSubjType(relType), db.getObjType(relType)));
 
-    db.addRelationChangeHandler(relType, forward ?
-      (child, parent, affirm) ->
+    db.addRelationChangeHandler(relType, new RelationChangeHandler()
+    {
+      @Override public void handle(HDT_Record subj, HDT_Record obj, boolean affirm)
       {
-        if (affirm) assignParent(child, parent);
-        else        unassignParent(child, parent);
+        if (forward) handleParentChange(subj, obj, affirm);
+        else         handleParentChange(obj, subj, affirm);
       }
-    :
-      (child, parent, affirm) ->
+
+      @Override public void handleBatch(List<RelationChange> changes)
       {
-        if (affirm) assignParent(parent, child);
-        else        unassignParent(parent, child);
-      });
+        pendingRechecks = new LinkedHashSet<>();
+
+        try
+        {
+          changes.forEach(change -> handle(change.subject, change.object, change.affirm));
+        }
+        finally
+        {
+          Set<HDT_Record> records = pendingRechecks;
+          pendingRechecks = null;
+
+          records.stream().filter(recordsInTree::contains).forEach(TreeModel.this::recheckInTree);
+        }
+      }
+    });
+  }
+
+//---------------------------------------------------------------------------
+//---------------------------------------------------------------------------
+
+  private void handleParentChange(HDT_Record child, HDT_Record parent, boolean affirm)
+  {
+    if (affirm) assignParent(child, parent);
+    else        unassignParent(child, parent);
   }
 
 //---------------------------------------------------------------------------
@@ -49,7 +49,7 @@ public class TreeRow extends AbstractTreeRow<HDT_Record, TreeRow>
 
     if (record == null) return;
 
-    treeItem = new TreeItem<>(this);
+    treeItem = treeModel == null ? new TreeItem<>(this) : treeModel.newTreeItem(this);
   }
 
 //---------------------------------------------------------------------------
@@ -181,6 +181,14 @@ public class TreeWrapper extends AbstractTreeWrapper<TreeRow>
     return Collections.unmodifiableList(rows);
   }
 
+//---------------------------------------------------------------------------
+//---------------------------------------------------------------------------
+
+  public boolean isInTree(HDT_Record record)
+  {
+    return debateTree.isInTree(record) || noteTree.isInTree(record) || labelTree.isInTree(record) || (hasTerms && termTree.isInTree(record));
+  }
+
 //---------------------------------------------------------------------------
 //---------------------------------------------------------------------------
 
@@ -105,14 +105,11 @@ public class BidiOneToManyRecordMap
 //---------------------------------------------------------------------------
 //---------------------------------------------------------------------------
 
+  // Has to be atomic because the mentions index is rebuilt from multiple threads
+
   private Set<HDT_Record> getSet(Map<HDT_Record, Set<HDT_Record>> map1, HDT_Record record1)
   {
-    if (map1.containsKey(record1)) return map1.get(record1);
-
-    Set<HDT_Record> set = Sets.newConcurrentHashSet();
-
-    map1.put(record1, set);
-    return set;
+    return map1.computeIfAbsent(record1, key -> Sets.newConcurrentHashSet());
   }
 
 //---------------------------------------------------------------------------
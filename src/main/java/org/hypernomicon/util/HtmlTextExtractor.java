@@ -0,0 +1,285 @@
+/*
+ * Copyright 2015-2020 Jason Winning
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.hypernomicon.util;
+
+import java.util.Locale;
+import java.util.Set;
+
+import org.jsoup.parser.Parser;
+
+//---------------------------------------------------------------------------
+
+// Gets the same text out of an HTML string that Jsoup.parse(html).text() would, but in a
+// single pass over the string without building a DOM. Whitespace is collapsed, and a space
+// is put between block-level elements and at line breaks, the same way Jsoup does it.
+
+public final class HtmlTextExtractor
+{
+
+//---------------------------------------------------------------------------
+
+  private static final Set<String> blockTags = Set.of
+  (
+    "html", "head", "body", "frameset", "script", "noscript", "style", "meta", "link", "title", "frame", "noframes", "section", "nav",
+    "aside", "hgroup", "header", "footer", "p", "h1", "h2", "h3", "h4", "h5", "h6", "ul", "ol", "pre", "div", "blockquote", "hr",
+    "address", "figure", "figcaption", "form", "fieldset", "ins", "del", "dl", "dt", "dd", "li", "table", "caption", "thead", "tfoot",
+    "tbody", "colgroup", "col", "tr", "th", "td", "video", "audio", "canvas", "details", "menu", "plaintext", "template", "article",
+    "main", "svg", "math", "center"
+  );
+
+  private static final Set<String> voidTags = Set.of
+  (
+    "area", "base", "basefont", "bgsound", "br", "col", "embed", "frame", "hr", "img", "input", "keygen", "link", "menuitem", "meta",
+    "param", "source", "track", "wbr"
+  );
+
+  private final String html;
+  private final StringBuilder sb;
+  private int pos = 0, preDepth = 0;
+  private boolean afterBlockEnd = false;
+
+//---------------------------------------------------------------------------
+
+  private HtmlTextExtractor(String html)
+  {
+    this.html = html;
+    sb = new StringBuilder(html.length() / 2);
+  }
+
+  public static String extract(String html) { return new HtmlTextExtractor(html).extract(); }
+
+  private static boolean isWhitespace(char c) { return (c == ' ') || (c == '\t') || (c == '\n') || (c == '\f') || (c == '\r') || (c == 160); }
+  private boolean lastCharIsWhitespace()      { return (sb.length() > 0) && (sb.charAt(sb.length() - 1) == ' '); }
+
+//---------------------------------------------------------------------------
+//---------------------------------------------------------------------------
+
+  private String extract()
+  {
+    int textStart = 0;
+
+    while (pos < html.length())
+    {
+      if ((html.charAt(pos) == '<') && (pos + 1 < html.length()))
+      {
+        char next = html.charAt(pos + 1);
+
+        if (Character.isLetter(next) || (next == '/') || (next == '!') || (next == '?'))
+        {
+          appendText(html, textStart, pos);
+          readMarkup();
+          textStart = pos;
+          continue;
+        }
+      }
+
+      pos++;
+    }
+
+    appendText(html, textStart, html.length());
+
+    return sb.toString().trim();
+  }
+
+//---------------------------------------------------------------------------
+//---------------------------------------------------------------------------
+
+  private void appendText(String str, int start, int end)
+  {
+    if (start >= end) return;
+
+    String text = str.substring(start, end);
+
+    if (text.indexOf('&') >= 0)
+      text = Parser.unescapeEntities(text, false);
+
+    if (afterBlockEnd && (lastCharIsWhitespace() == false))
+      sb.append(' ');
+
+    afterBlockEnd = false;
+
+    if (preDepth > 0)
+    {
+      sb.append(text);
+      return;
+    }
+
+    boolean lastWasWhite = false, reachedNonWhite = false, stripLeading = lastCharIsWhitespace();
+
+    for (int ndx = 0; ndx < text.length(); ndx++)
+    {
+      char c = text.charAt(ndx);
+
+      if (isWhitespace(c))
+      {
+        if ((stripLeading && (reachedNonWhite == false)) || lastWasWhite)
+          continue;
+
+        sb.append(' ');
+        lastWasWhite = true;
+      }
+      else if ((c != 8203) && (c != 173)) // Zero-width space and soft hyphen are dropped
+      {
+        sb.append(c);
+        lastWasWhite = false;
+        reachedNonWhite = true;
+      }
+    }
+  }
+
+//---------------------------------------------------------------------------
+//---------------------------------------------------------------------------
+
+  // pos is at the '<' of a tag, comment, or declaration; this moves it past the end
+
+  private void readMarkup()
+  {
+    if (html.startsWith("<!--", pos))
+    {
+      int end = html.indexOf("-->", pos + 4);
+      pos = end < 0 ? html.length() : end + 3;
+      return;
+    }
+
+    boolean endTag = html.charAt(pos + 1) == '/';
+
+    if ((html.charAt(pos + 1) == '!') || (html.charAt(pos + 1) == '?'))
+    {
+      skipPastTagEnd(pos + 2);
+      return;
+    }
+
+    int nameStart = pos + (endTag ? 2 : 1), nameEnd = nameStart;
+
+    while ((nameEnd < html.length()) && (isWhitespace(html.charAt(nameEnd)) == false) && (html.charAt(nameEnd) != '/') && (html.charAt(nameEnd) != '>'))
+      nameEnd++;
+
+    String name = html.substring(nameStart, nameEnd).toLowerCase(Locale.ROOT);
+    boolean selfClosing = skipPastTagEnd(nameEnd);
+
+    if (endTag)
+    {
+      if (name.equals("pre") && (preDepth > 0)) preDepth--;
+      afterBlockEnd = blockTags.contains(name);
+      return;
+    }
+
+    afterBlockEnd = false;
+
+    boolean isBlock = blockTags.contains(name);
+
+    if ((isBlock || name.equals("br")) && (sb.length() > 0) && (lastCharIsWhitespace() == false))
+      sb.append(' ');
+
+    switch (name)
+    {
+      case "script" : case "style" :
+
+        skipRawText(name, false);
+        break;
+
+      case "title" : case "textarea" :
+
+        preDepth++;
+        skipRawText(name, true);
+        preDepth--;
+        break;
+
+      case "pre" :
+
+        if (selfClosing == false) preDepth++;
+        return;
+
+      default :
+
+        if ((selfClosing || voidTags.contains(name)) && isBlock)
+          afterBlockEnd = true;
+
+        return;
+    }
+
+    afterBlockEnd = isBlock; // The end tag has already been read
+  }
+
+//---------------------------------------------------------------------------
+//---------------------------------------------------------------------------
+
+  // Moves pos past the '>' at the end of the tag, skipping over quoted attribute values.
+  // Returns true if the tag ends with "/>".
+
+  private boolean skipPastTagEnd(int ndx)
+  {
+    char quote = 0;
+
+    while (ndx < html.length())
+    {
+      char c = html.charAt(ndx);
+
+      if (quote != 0)
+      {
+        if (c == quote) quote = 0;
+      }
+      else if ((c == '"') || (c == '\''))
+        quote = c;
+      else if (c == '>')
+      {
+        pos = ndx + 1;
+        return html.charAt(ndx - 1) == '/';
+      }
+
+      ndx++;
+    }
+
+    pos = html.length();
+    return false;
+  }
+
+//---------------------------------------------------------------------------
+//---------------------------------------------------------------------------
+
+  // Contents of script and style elements are not text; contents of title and textarea are, but they can't contain tags
+
+  private void skipRawText(String name, boolean isText)
+  {
+    int end = pos;
+
+    while (true)
+    {
+      end = html.indexOf("</", end);
+
+      if ((end < 0) || html.regionMatches(true, end + 2, name, 0, name.length()))
+        break;
+
+      end += 2;
+    }
+
+    if (end < 0) end = html.length();
+
+    if (isText)
+      appendText(html, pos, end);
+
+    if (end < html.length())
+      skipPastTagEnd(end);
+    else
+      pos = end;
+  }
+
+//---------------------------------------------------------------------------
+//---------------------------------------------------------------------------
+
+}
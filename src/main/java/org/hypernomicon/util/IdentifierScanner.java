@@ -0,0 +1,357 @@
+/*
+ * Copyright 2015-2020 Jason Winning
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.hypernomicon.util;
+
+import static org.hypernomicon.util.Util.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+//---------------------------------------------------------------------------
+
+// Finds DOIs, ISBNs, and ISSNs in a string. The string is normalized once for each way it needs to be
+// looked at (see prepare), and that is shared by all three kinds of identifier. Instead of running a regex
+// at every position, ISBNs and ISSNs are found by looking at each run of digits and dashes once, and DOIs
+// are only looked for where "10." occurs. The results are the same as matching these patterns with find():
+//
+//   DOI:      (\A|\D)(10\.\d{4,}[0-9.]*\/[a-zA-Z0-9\-._;:()/\\]+)(\z|\D)
+//             ([dD]0[i1])(10\.\d{4,}[0-9.]*\/[a-zA-Z0-9\-._;:()/\\]+)(\z|\D)
+//   ISSN:     (\A|\G|[^0-9\-])(\d{4}-\d{3}[\dxX])(\z|[^0-9\-])
+//   ISBN-13:  (\A|\G|[^0-9\-])((\d-?){12}\d)(\z|[^0-9\-])
+//   ISBN-10:  (\A|\G|[^0-9\-])((\d-?){9}[0-9xX])(\z|[^0-9xX\-])
+
+public final class IdentifierScanner
+{
+
+//---------------------------------------------------------------------------
+
+// DOI legal characters according to Crossref: "a-z", "A-Z", "0-9" and "-._;()/"
+// But I've seen at least one Crossref DOI that included a colon
+
+  private static final Pattern doiPattern = Pattern.compile("10\\.\\d{4,}[0-9.]*/[a-zA-Z0-9\\-._;:()/\\\\]+");
+
+  private final String text;
+  private String prepared = null, preparedNoLetters = null, preparedNoLettersOrSpaces = null;
+  private boolean hasSpaces = false;
+
+//---------------------------------------------------------------------------
+//---------------------------------------------------------------------------
+
+  public IdentifierScanner(String text) { this.text = safeStr(text); }
+
+  private String prepared()
+  {
+    if (prepared == null) prepared = prepare(text, false, false);
+    return prepared;
+  }
+
+  private String preparedNoLetters()
+  {
+    if (preparedNoLetters == null) preparedNoLetters = prepare(text, true, false);
+    return preparedNoLetters;
+  }
+
+  private String preparedNoLettersOrSpaces()
+  {
+    if (preparedNoLettersOrSpaces == null) preparedNoLettersOrSpaces = prepare(text, true, true);
+    return preparedNoLettersOrSpaces;
+  }
+
+//---------------------------------------------------------------------------
+//---------------------------------------------------------------------------
+
+  // In one pass: all dashes are treated the same and runs of them are collapsed, a slash encoded as the
+  // STX control character is restored, and optionally, letters that look like digits are taken to be
+  // those digits and horizontal whitespace is removed
+
+  private String prepare(String str, boolean disregardLetters, boolean removeSpaces)
+  {
+    StringBuilder sb = new StringBuilder(str.length());
+
+    for (int ndx = 0; ndx < str.length(); )
+    {
+      int c = str.codePointAt(ndx);
+      ndx += Character.charCount(c);
+
+      if (isHorizontalWhitespace(c))
+      {
+        hasSpaces = true;
+        if (removeSpaces) continue;
+      }
+
+      if ((Character.getType(c) == Character.DASH_PUNCTUATION) || (c == '\u00AD')) // "soft hyphen" is not a dash punctuation character
+      {
+        if ((sb.length() > 0) && (sb.charAt(sb.length() - 1) == '-')) continue;
+        c = '-';
+      }
+      else if (c == '\u0002')
+        c = '/';
+      else if (disregardLetters) switch (c)
+      {
+        case 'l' : case 'I'            : c = '1'; break;
+        case 'o' : case 'O' : case 176 : c = '0'; break; // 176 is degree sign
+        default : break;
+      }
+
+      sb.appendCodePoint(c);
+    }
+
+    return sb.toString();
+  }
+
+//---------------------------------------------------------------------------
+//---------------------------------------------------------------------------
+
+  // Same as the \h regex character class
+
+  private static boolean isHorizontalWhitespace(int c)
+  {
+    return (c == ' ') || (c == '\t') || (c == 0xA0) || (c == 0x1680) || (c == 0x180E) || ((c >= 0x2000) && (c <= 0x200A)) ||
+           (c == 0x202F) || (c == 0x205F) || (c == 0x3000);
+  }
+
+  private static int digitValue(char c) { return c == 'X' ? 10 : ((c >= '0') && (c <= '9') ? c - '0' : -1); }
+
+//---------------------------------------------------------------------------
+//---------------------------------------------------------------------------
+
+  public String getDOI()
+  {
+    if (text.isEmpty()) return "";
+
+    String doi = matchDOI(prepared(), preparedNoLetters());
+    if (doi.length() > 0) return doi;
+
+    String unescaped = unescapeURL(text);
+    if (unescaped.equals(text)) return "";
+
+    IdentifierScanner scanner = new IdentifierScanner(unescaped);
+    return matchDOI(scanner.prepared(), scanner.preparedNoLetters());
+  }
+
+  private static String matchDOI(String str, String strNoLetters)
+  {
+    String doi = matchDOI(str, false);
+    if (doi.length() > 0) return doi;
+
+    doi = matchDOI(strNoLetters, false);
+    return doi.length() > 0 ? doi : matchDOI(strNoLetters, true);
+  }
+
+  // If prefixed is true, the DOI has to come right after "d0i" or "d01"; otherwise it can't come right after a digit.
+  // The pattern doesn't have to be checked for what comes after the DOI because that can only be a non-digit.
+
+  private static String matchDOI(String str, boolean prefixed)
+  {
+    Matcher m = null;
+
+    for (int ndx = str.indexOf("10."); ndx >= 0; ndx = str.indexOf("10.", ndx + 1))
+    {
+      if (prefixed)
+      {
+        if ((ndx < 3) || (Character.toLowerCase(str.charAt(ndx - 3)) != 'd') || (str.charAt(ndx - 2) != '0') ||
+            ((str.charAt(ndx - 1) != 'i') && (str.charAt(ndx - 1) != '1')))
+          continue;
+      }
+      else if ((ndx > 0) && isDigit(str.charAt(ndx - 1)))
+        continue;
+
+      if (m == null) m = doiPattern.matcher(str);
+
+      if (m.region(ndx, str.length()).lookingAt())
+        return m.group();
+    }
+
+    return "";
+  }
+
+//---------------------------------------------------------------------------
+//---------------------------------------------------------------------------
+
+  public List<String> getISSNs() { return addISSNs(new ArrayList<>()); }
+
+  public List<String> addISSNs(List<String> list)
+  {
+    if (text.isEmpty()) return list;
+
+    String str = preparedNoLetters();
+
+    for (int start = nextRunStart(str, 0), end; start < str.length(); start = nextRunStart(str, end))
+    {
+      end = runEnd(str, start);
+
+      if ((end - start == 8) && (end < str.length()) && (Character.toUpperCase(str.charAt(end)) == 'X'))
+        end++;
+
+      if ((end - start != 9) || ((end < str.length()) && isDigitOrDash(str.charAt(end)))) continue;
+
+      String found = str.substring(start, end);
+      int sum = 0;
+
+      for (int x = 0, digitNdx = 0; x < 9; x++)
+      {
+        char c = found.charAt(x);
+        boolean valid = x == 4 ? c == '-' : (isDigit(c) || ((x == 8) && (Character.toUpperCase(c) == 'X')));
+
+        if (valid == false)
+        {
+          sum = 0;
+          break;
+        }
+
+        if (x != 4)
+          sum += digitValue(c) * (8 - digitNdx++);
+      }
+
+      if ((sum > 0) && ((sum % 11) == 0) && (list.contains(found) == false))
+        list.add(found);
+    }
+
+    return list;
+  }
+
+//---------------------------------------------------------------------------
+//---------------------------------------------------------------------------
+
+  // Also checks again with horizontal whitespace removed
+
+  public List<String> getISBNs() { return addISBNs(new ArrayList<>()); }
+
+  public List<String> addISBNs(List<String> list)
+  {
+    if (text.isEmpty()) return list;
+
+    addISBNs(preparedNoLetters(), list);
+
+    if (hasSpaces)
+      addISBNs(preparedNoLettersOrSpaces(), list);
+
+    return list;
+  }
+
+//---------------------------------------------------------------------------
+//---------------------------------------------------------------------------
+
+  private static void addISBNs(String str, List<String> list)
+  {
+    List<String> isbn10s = new ArrayList<>();
+
+    for (int start = nextRunStart(str, 0), end; start < str.length(); start = nextRunStart(str, end))
+    {
+      end = runEnd(str, start);
+
+      String isbn13 = digitsIfGrouped(str, start, end, 13, false);
+
+      if (isbn13 != null)
+      {
+        int sum = 0;
+
+        for (int x = 0; x < 12; x++)
+          sum += (((x % 2) * 2) + 1) * digitValue(isbn13.charAt(x));
+
+        if ((sum > 0) && (((10 - (sum % 10)) % 10) == digitValue(isbn13.charAt(12))) && (list.contains(isbn13) == false))
+          list.add(isbn13);
+      }
+
+      // An ISBN-10 can end with an X
+
+      int isbn10End = end;
+
+      if ((end < str.length()) && (Character.toUpperCase(str.charAt(end)) == 'X'))
+      {
+        isbn10End++;
+        if ((isbn10End < str.length()) && (isDigitOrDash(str.charAt(isbn10End)) || (Character.toUpperCase(str.charAt(isbn10End)) == 'X')))
+          continue;
+      }
+
+      String isbn10 = isbn10End > end ?
+        nullSwitch(digitsIfGrouped(str, start, end, 9, true), null, digits -> digits + 'X')
+      :
+        digitsIfGrouped(str, start, end, 10, false);
+
+      if (isbn10 == null) continue;
+
+      int sum1 = 0, sum2 = 0;
+
+      for (int x = 0; x < 10; x++)
+      {
+        int n = digitValue(isbn10.charAt(x));
+
+        sum1 += n * (10 - x);
+        sum2 += n * (x + 1);
+      }
+
+      if ((sum1 > 0) && (sum2 > 0) && ((sum1 % 11) == 0) && ((sum2 % 11) == 0))
+        isbn10s.add(isbn10);
+    }
+
+    isbn10s.stream().filter(isbn10 -> list.contains(isbn10) == false).forEach(list::add);
+  }
+
+//---------------------------------------------------------------------------
+//---------------------------------------------------------------------------
+
+  private static boolean isDigit(char c)       { return (c >= '0') && (c <= '9'); }
+  private static boolean isDigitOrDash(char c) { return isDigit(c) || (c == '-'); }
+
+  // Runs are maximal sequences of digits and dashes
+
+  private static int nextRunStart(String str, int ndx)
+  {
+    while ((ndx < str.length()) && (isDigitOrDash(str.charAt(ndx)) == false)) ndx++;
+    return ndx;
+  }
+
+  private static int runEnd(String str, int ndx)
+  {
+    while ((ndx < str.length()) && isDigitOrDash(str.charAt(ndx))) ndx++;
+    return ndx;
+  }
+
+//---------------------------------------------------------------------------
+//---------------------------------------------------------------------------
+
+  // If the run is the given number of digits with single dashes between them, returns just the digits;
+  // otherwise returns null. The run may also end with a dash if it is followed by an X.
+
+  private static String digitsIfGrouped(String str, int start, int end, int digitCount, boolean trailingDashOK)
+  {
+    if ((end - start < digitCount) || (end - start > (digitCount * 2)) || (isDigit(str.charAt(start)) == false)) return null;
+    if ((trailingDashOK == false) && (str.charAt(end - 1) == '-')) return null;
+
+    StringBuilder digits = new StringBuilder(digitCount);
+
+    for (int ndx = start; ndx < end; ndx++)
+    {
+      char c = str.charAt(ndx);
+
+      if (c != '-')
+        digits.append(c);
+      else if (str.charAt(ndx - 1) == '-')
+        return null;
+    }
+
+    return digits.length() == digitCount ? digits.toString() : null;
+  }
+
+//---------------------------------------------------------------------------
+//---------------------------------------------------------------------------
+
+}
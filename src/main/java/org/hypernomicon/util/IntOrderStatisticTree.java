@@ -0,0 +1,343 @@
+/*
+ * Copyright 2015-2020 Jason Winning
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.hypernomicon.util;
+
+import java.util.Arrays;
+
+//---------------------------------------------------------------------------
+
+// Ordered set of ints that can also look up an element by its index in sorted order, and the
+// index of an element, in O(log n) time. It is a treap stored in parallel primitive arrays, so
+// there is no boxing and no object per element. The ordering can be supplied by the caller,
+// e.g. to sort record IDs by some other property of the record.
+
+public final class IntOrderStatisticTree
+{
+
+//---------------------------------------------------------------------------
+
+  @FunctionalInterface public interface IntComparator { int compare(int value1, int value2); }
+
+//---------------------------------------------------------------------------
+
+  private static final int NIL = 0; // Node 0 is a sentinel with size 0
+
+  private final IntComparator comparator;
+  private int[] values, lefts, rights, sizes, priorities;
+  private int root, nextNode, freeNode, seed = 0x2545F491;
+
+//---------------------------------------------------------------------------
+//---------------------------------------------------------------------------
+
+  public IntOrderStatisticTree()                         { this(Integer::compare); }
+  public IntOrderStatisticTree(IntComparator comparator) { this.comparator = comparator; clear(); }
+
+  public int size()                                      { return sizes[root]; }
+  public boolean contains(int value)                     { return indexOf(value) >= 0; }
+
+//---------------------------------------------------------------------------
+//---------------------------------------------------------------------------
+
+  public void clear()
+  {
+    values     = new int[16];
+    lefts      = new int[16];
+    rights     = new int[16];
+    sizes      = new int[16];
+    priorities = new int[16];
+
+    root = NIL;
+    freeNode = NIL;
+    nextNode = 1;
+  }
+
+//---------------------------------------------------------------------------
+//---------------------------------------------------------------------------
+
+  // Returns the element at the given index in sorted order
+
+  public int get(int ndx)
+  {
+    if ((ndx < 0) || (ndx >= size()))
+      throw new IndexOutOfBoundsException("Index: " + ndx + ", Size: " + size());
+
+    int node = root;
+
+    while (true)
+    {
+      int leftSize = sizes[lefts[node]];
+
+      if (ndx < leftSize)
+        node = lefts[node];
+      else if (ndx == leftSize)
+        return values[node];
+      else
+      {
+        ndx -= leftSize + 1;
+        node = rights[node];
+      }
+    }
+  }
+
+//---------------------------------------------------------------------------
+//---------------------------------------------------------------------------
+
+  // Returns the index of the element in sorted order, or -1 if it isn't in the set
+
+  public int indexOf(int value)
+  {
+    int node = root, ndx = 0;
+
+    while (node != NIL)
+    {
+      int result = comparator.compare(value, values[node]);
+
+      if (result < 0)
+        node = lefts[node];
+      else if (result > 0)
+      {
+        ndx += sizes[lefts[node]] + 1;
+        node = rights[node];
+      }
+      else
+        return ndx + sizes[lefts[node]];
+    }
+
+    return -1;
+  }
+
+//---------------------------------------------------------------------------
+//---------------------------------------------------------------------------
+
+  // Returns the number of elements that sort before the value, whether or not it is in the set
+
+  public int countLessThan(int value)
+  {
+    int node = root, count = 0;
+
+    while (node != NIL)
+    {
+      if (comparator.compare(value, values[node]) <= 0)
+        node = lefts[node];
+      else
+      {
+        count += sizes[lefts[node]] + 1;
+        node = rights[node];
+      }
+    }
+
+    return count;
+  }
+
+//---------------------------------------------------------------------------
+//---------------------------------------------------------------------------
+
+  public int[] toArray()
+  {
+    int[] result = new int[size()], stack = new int[64];
+    int node = root, depth = 0, ndx = 0;
+
+    while ((node != NIL) || (depth > 0))
+    {
+      if (node != NIL)
+      {
+        if (depth == stack.length) stack = Arrays.copyOf(stack, depth * 2);
+
+        stack[depth++] = node;
+        node = lefts[node];
+      }
+      else
+      {
+        node = stack[--depth];
+        result[ndx++] = values[node];
+        node = rights[node];
+      }
+    }
+
+    return result;
+  }
+
+//---------------------------------------------------------------------------
+//---------------------------------------------------------------------------
+
+  public boolean add(int value)
+  {
+    if (contains(value)) return false;
+
+    root = insert(root, newNode(value));
+    return true;
+  }
+
+//---------------------------------------------------------------------------
+//---------------------------------------------------------------------------
+
+  public boolean remove(int value)
+  {
+    if (contains(value) == false) return false;
+
+    root = delete(root, value);
+    return true;
+  }
+
+//---------------------------------------------------------------------------
+//---------------------------------------------------------------------------
+
+  private int insert(int node, int newNode)
+  {
+    if (node == NIL) return newNode;
+
+    if (comparator.compare(values[newNode], values[node]) < 0)
+    {
+      lefts[node] = insert(lefts[node], newNode);
+
+      if (priorities[lefts[node]] > priorities[node])
+        return rotateRight(node);
+    }
+    else
+    {
+      rights[node] = insert(rights[node], newNode);
+
+      if (priorities[rights[node]] > priorities[node])
+        return rotateLeft(node);
+    }
+
+    updateSize(node);
+    return node;
+  }
+
+//---------------------------------------------------------------------------
+//---------------------------------------------------------------------------
+
+  private int delete(int node, int value)
+  {
+    int result = comparator.compare(value, values[node]);
+
+    if (result < 0)
+      lefts[node] = delete(lefts[node], value);
+    else if (result > 0)
+      rights[node] = delete(rights[node], value);
+    else
+    {
+      int merged = merge(lefts[node], rights[node]);
+
+      lefts[node] = freeNode;
+      freeNode = node;
+
+      return merged;
+    }
+
+    updateSize(node);
+    return node;
+  }
+
+//---------------------------------------------------------------------------
+//---------------------------------------------------------------------------
+
+  // Every element of the first subtree must sort before every element of the second
+
+  private int merge(int node1, int node2)
+  {
+    if (node1 == NIL) return node2;
+    if (node2 == NIL) return node1;
+
+    if (priorities[node1] > priorities[node2])
+    {
+      rights[node1] = merge(rights[node1], node2);
+      updateSize(node1);
+      return node1;
+    }
+
+    lefts[node2] = merge(node1, lefts[node2]);
+    updateSize(node2);
+    return node2;
+  }
+
+//---------------------------------------------------------------------------
+//---------------------------------------------------------------------------
+
+  private int rotateRight(int node)
+  {
+    int left = lefts[node];
+
+    lefts[node] = rights[left];
+    rights[left] = node;
+
+    updateSize(node);
+    updateSize(left);
+    return left;
+  }
+
+  private int rotateLeft(int node)
+  {
+    int right = rights[node];
+
+    rights[node] = lefts[right];
+    lefts[right] = node;
+
+    updateSize(node);
+    updateSize(right);
+    return right;
+  }
+
+  private void updateSize(int node) { sizes[node] = sizes[lefts[node]] + sizes[rights[node]] + 1; }
+
+//---------------------------------------------------------------------------
+//---------------------------------------------------------------------------
+
+  private int newNode(int value)
+  {
+    int node;
+
+    if (freeNode != NIL)
+    {
+      node = freeNode;
+      freeNode = lefts[node];
+    }
+    else
+    {
+      if (nextNode == values.length)
+      {
+        int newLength = values.length * 2;
+
+        values     = Arrays.copyOf(values    , newLength);
+        lefts      = Arrays.copyOf(lefts     , newLength);
+        rights     = Arrays.copyOf(rights    , newLength);
+        sizes      = Arrays.copyOf(sizes     , newLength);
+        priorities = Arrays.copyOf(priorities, newLength);
+      }
+
+      node = nextNode++;
+    }
+
+    seed ^= seed << 13; // xorshift
+    seed ^= seed >>> 17;
+    seed ^= seed << 5;
+
+    values[node] = value;
+    lefts[node] = NIL;
+    rights[node] = NIL;
+    sizes[node] = 1;
+    priorities[node] = seed;
+
+    return node;
+  }
+
+//---------------------------------------------------------------------------
+//---------------------------------------------------------------------------
+
+}
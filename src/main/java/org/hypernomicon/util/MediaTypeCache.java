@@ -0,0 +1,269 @@
+/*
+ * Copyright 2015-2020 Jason Winning
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.hypernomicon.util;
+
+import static org.hypernomicon.model.HyperDB.*;
+
+import static java.nio.file.StandardCopyOption.*;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.apache.tika.mime.MediaType;
+import org.hypernomicon.HyperTask.HyperThread;
+import org.hypernomicon.util.filePath.FilePath;
+
+//---------------------------------------------------------------------------
+
+// Media types that were detected from the contents of files, so a file doesn't have to be read again as
+// long as its size and modified time are the same. Entries for files in the database folder are saved in
+// the snapshot folder, with paths relative to the root folder, and read back in the first time a file is
+// looked up after a database is loaded.
+
+public final class MediaTypeCache
+{
+
+//---------------------------------------------------------------------------
+
+  private static final class Entry
+  {
+    private final long size, modified;
+    private final MediaType mediaType;
+
+    private Entry(long size, long modified, MediaType mediaType)
+    {
+      this.size = size;
+      this.modified = modified;
+      this.mediaType = mediaType;
+    }
+  }
+
+//---------------------------------------------------------------------------
+
+  private static final int MAX_ENTRIES = 20000, FORMAT_VERSION = 1;
+  private static final long MAGIC = 0x4844425F4D494D45L; // "HDB_MIME"
+  private static final String CACHE_FILE_NAME = "MediaTypes.cache";
+
+  // Access-ordered, so the least recently used entry is the one that gets dropped
+
+  private static final Map<Path, Entry> pathToEntry = new LinkedHashMap<>(16, 0.75f, true)
+  {
+    @Override protected boolean removeEldestEntry(Map.Entry<Path, Entry> eldest) { return size() > MAX_ENTRIES; }
+  };
+
+  private static final Set<Path> pendingPaths = new HashSet<>();
+  private static ExecutorService sniffer = null;
+  private static Path loadedRootPath = null;
+  private static boolean dirty = false;
+
+//---------------------------------------------------------------------------
+//---------------------------------------------------------------------------
+
+  // Returns null if the file doesn't exist or can't be read
+
+  static BasicFileAttributes readAttributes(FilePath filePath)
+  {
+    try { return Files.readAttributes(filePath.toPath(), BasicFileAttributes.class); }
+    catch (IOException | RuntimeException e) { return null; }
+  }
+
+//---------------------------------------------------------------------------
+//---------------------------------------------------------------------------
+
+  // Returns null if there is no entry for the file or it is out of date
+
+  static synchronized MediaType get(FilePath filePath, BasicFileAttributes attribs)
+  {
+    loadIfNeeded();
+
+    Entry entry = pathToEntry.get(filePath.toPath());
+
+    return (entry != null) && (entry.size == attribs.size()) && (entry.modified == attribs.lastModifiedTime().toMillis()) ?
+      entry.mediaType
+    :
+      null;
+  }
+
+//---------------------------------------------------------------------------
+
+  static synchronized void put(FilePath filePath, BasicFileAttributes attribs, MediaType mediaType)
+  {
+    pathToEntry.put(filePath.toPath(), new Entry(attribs.size(), attribs.lastModifiedTime().toMillis(), mediaType));
+    dirty = true;
+  }
+
+//---------------------------------------------------------------------------
+//---------------------------------------------------------------------------
+
+  // Detects the file's media type on a background thread so that it will be in the cache next time
+
+  static synchronized void sniffLater(FilePath filePath)
+  {
+    if (pendingPaths.add(filePath.toPath()) == false) return;
+
+    if (sniffer == null)
+    {
+      sniffer = Executors.newSingleThreadExecutor(runnable ->
+      {
+        HyperThread thread = new HyperThread(runnable, "MediaTypeSniffer");
+        thread.setDaemon(true);
+        return thread;
+      });
+    }
+
+    sniffer.execute(() ->
+    {
+      MediaUtil.getMediaType(filePath);
+
+      synchronized (MediaTypeCache.class) { pendingPaths.remove(filePath.toPath()); }
+    });
+  }
+
+//---------------------------------------------------------------------------
+//---------------------------------------------------------------------------
+
+  private static Path rootPath()
+  {
+    return db.isLoaded() && (FilePath.isEmpty(db.getRootPath()) == false) ? db.getRootPath().toPath().toAbsolutePath().normalize() : null;
+  }
+
+  private static FilePath cacheFilePath    () { return db.snapshotPath(CACHE_FILE_NAME); }
+  private static FilePath cacheTempFilePath() { return db.snapshotPath(CACHE_FILE_NAME + ".tmp"); }
+
+//---------------------------------------------------------------------------
+//---------------------------------------------------------------------------
+
+  private static void loadIfNeeded()
+  {
+    Path rootPath = rootPath();
+    if ((rootPath == null) || rootPath.equals(loadedRootPath)) return;
+
+    loadedRootPath = rootPath;
+
+    FilePath filePath = cacheFilePath();
+    if (filePath.exists() == false) return;
+
+    List<Path> paths = new ArrayList<>();
+    List<Entry> entries = new ArrayList<>();
+
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(filePath.toFile()))))
+    {
+      if ((in.readLong() != MAGIC) || (in.readInt() != FORMAT_VERSION)) return;
+
+      for (int ndx = in.readInt(); ndx > 0; ndx--)
+      {
+        paths.add(rootPath.resolve(in.readUTF()));
+        entries.add(new Entry(in.readLong(), in.readLong(), MediaType.parse(in.readUTF())));
+      }
+    }
+    catch (IOException | RuntimeException e)
+    {
+      return;
+    }
+
+    // Entries that are already in memory are newer
+
+    for (int ndx = 0; ndx < paths.size(); ndx++)
+      if ((entries.get(ndx).mediaType != null) && (pathToEntry.containsKey(paths.get(ndx)) == false))
+        pathToEntry.put(paths.get(ndx), entries.get(ndx));
+  }
+
+//---------------------------------------------------------------------------
+//---------------------------------------------------------------------------
+
+  // Saving is best-effort; if it fails, the media types will just be detected again
+
+  public static synchronized void save()
+  {
+    Path rootPath = rootPath();
+    if ((dirty == false) || (rootPath == null) || (rootPath.equals(loadedRootPath) == false)) return;
+
+    Map<String, Entry> relPathToEntry = new LinkedHashMap<>();
+
+    pathToEntry.forEach((path, entry) ->
+    {
+      Path absPath = path.toAbsolutePath().normalize();
+
+      if (absPath.startsWith(rootPath))
+        relPathToEntry.put(rootPath.relativize(absPath).toString(), entry);
+    });
+
+    FilePath filePath = cacheFilePath(), tempFilePath = cacheTempFilePath();
+
+    try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFilePath.toFile()))))
+    {
+      out.writeLong(MAGIC);
+      out.writeInt(FORMAT_VERSION);
+      out.writeInt(relPathToEntry.size());
+
+      for (Map.Entry<String, Entry> mapEntry : relPathToEntry.entrySet())
+      {
+        Entry entry = mapEntry.getValue();
+
+        out.writeUTF(mapEntry.getKey());
+        out.writeLong(entry.size);
+        out.writeLong(entry.modified);
+        out.writeUTF(entry.mediaType.toString());
+      }
+    }
+    catch (IOException e)
+    {
+      tempFilePath.deleteReturnsBoolean(true);
+      return;
+    }
+
+    try
+    {
+      try
+      {
+        Files.move(tempFilePath.toPath(), filePath.toPath(), REPLACE_EXISTING, ATOMIC_MOVE);
+      }
+      catch (AtomicMoveNotSupportedException e)
+      {
+        Files.move(tempFilePath.toPath(), filePath.toPath(), REPLACE_EXISTING);
+      }
+
+      dirty = false;
+    }
+    catch (IOException e)
+    {
+      tempFilePath.deleteReturnsBoolean(true);
+    }
+  }
+
+//---------------------------------------------------------------------------
+//---------------------------------------------------------------------------
+
+}
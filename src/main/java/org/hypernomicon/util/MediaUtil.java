@@ -24,6 +24,7 @@ import java.io.BufferedInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.charset.Charset;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.Arrays;
 
 import org.apache.tika.config.TikaConfig;
@@ -61,10 +62,66 @@ public class MediaUtil
 //---------------------------------------------------------------------------
 //---------------------------------------------------------------------------
 
+  // Files are only read if the cache doesn't already have the media type for the same size and modified time
+
   public static MediaType getMediaType(FilePath filePath)
   {
     if (FilePath.isEmpty(filePath)) return MediaType.OCTET_STREAM;
 
+    BasicFileAttributes attribs = MediaTypeCache.readAttributes(filePath);
+    if ((attribs == null) || attribs.isDirectory()) return detectMediaType(filePath);
+
+    MediaType mediaType = MediaTypeCache.get(filePath, attribs);
+
+    if (mediaType == null)
+    {
+      mediaType = detectMediaType(filePath);
+      MediaTypeCache.put(filePath, attribs, mediaType);
+    }
+
+    return mediaType;
+  }
+
+//---------------------------------------------------------------------------
+//---------------------------------------------------------------------------
+
+  // For listing files: if the media type isn't cached, it is guessed from the file name, and the file is read
+  // in the background so the cache will have it next time. Only if the name doesn't tell anything is the file read now.
+
+  public static MediaType getMediaTypeQuickly(FilePath filePath)
+  {
+    if (FilePath.isEmpty(filePath)) return MediaType.OCTET_STREAM;
+
+    BasicFileAttributes attribs = MediaTypeCache.readAttributes(filePath);
+    if ((attribs == null) || attribs.isDirectory()) return getMediaType(filePath);
+
+    MediaType mediaType = MediaTypeCache.get(filePath, attribs);
+    if (mediaType != null) return mediaType;
+
+    Metadata metadata = new Metadata();
+    metadata.set(Metadata.RESOURCE_NAME_KEY, filePath.toString());
+
+    try
+    {
+      mediaType = tika.getDetector().detect(null, metadata);
+    }
+    catch (IOException e)
+    {
+      mediaType = MediaType.OCTET_STREAM;
+    }
+
+    if (MediaType.OCTET_STREAM.equals(mediaType))
+      return getMediaType(filePath);
+
+    MediaTypeCache.sniffLater(filePath);
+    return mediaType;
+  }
+
+//---------------------------------------------------------------------------
+//---------------------------------------------------------------------------
+
+  private static MediaType detectMediaType(FilePath filePath)
+  {
     Metadata metadata = new Metadata();
     metadata.set(Metadata.RESOURCE_NAME_KEY, filePath.toString());
 
@@ -0,0 +1,200 @@
+/*
+ * Copyright 2015-2020 Jason Winning
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.hypernomicon.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+//---------------------------------------------------------------------------
+
+// Inverted index from each run of 3 characters to the items whose text contains it. Any item
+// whose text contains a query string is among the candidates returned for that query, so the
+// caller only has to check those instead of every item. Each item is added with a unique integer
+// key, which it can later be replaced or removed by, and items come back in the order of their keys.
+
+public final class TrigramIndex<T>
+{
+
+//---------------------------------------------------------------------------
+
+  private static final class Postings
+  {
+    private int[] keys = new int[4]; // Sorted
+    private int size = 0;
+
+    private void add(int key)
+    {
+      int ndx = Arrays.binarySearch(keys, 0, size, key);
+      if (ndx >= 0) return;
+
+      ndx = -(ndx + 1);
+
+      if (size == keys.length)
+        keys = Arrays.copyOf(keys, size * 2);
+
+      System.arraycopy(keys, ndx, keys, ndx + 1, size - ndx);
+      keys[ndx] = key;
+      size++;
+    }
+
+    private void remove(int key)
+    {
+      int ndx = Arrays.binarySearch(keys, 0, size, key);
+      if (ndx < 0) return;
+
+      System.arraycopy(keys, ndx + 1, keys, ndx, size - ndx - 1);
+      size--;
+    }
+  }
+
+//---------------------------------------------------------------------------
+
+  public static final int MIN_QUERY_LENGTH = 3;
+
+  private final Map<Integer, T> keyToItem = new HashMap<>();
+  private final Map<Integer, long[]> keyToTrigrams = new HashMap<>(); // So that an item's postings can be found when it is removed
+  private final Map<Long, Postings> trigramToPostings = new HashMap<>();
+
+//---------------------------------------------------------------------------
+//---------------------------------------------------------------------------
+
+  public int size() { return keyToItem.size(); }
+
+  private static long trigram(CharSequence text, int ndx)
+  {
+    return ((long)text.charAt(ndx) << 32) | ((long)text.charAt(ndx + 1) << 16) | text.charAt(ndx + 2);
+  }
+
+//---------------------------------------------------------------------------
+//---------------------------------------------------------------------------
+
+  // Replaces the item that was already added with the key, if any
+
+  public void add(int key, T item, Collection<String> texts)
+  {
+    remove(key);
+
+    int count = 0;
+
+    for (String text : texts)
+      count += Math.max(0, text.length() - MIN_QUERY_LENGTH + 1);
+
+    long[] trigrams = new long[count];
+    count = 0;
+
+    for (String text : texts)
+      for (int ndx = 0; ndx <= text.length() - MIN_QUERY_LENGTH; ndx++)
+        trigrams[count++] = trigram(text, ndx);
+
+    Arrays.sort(trigrams);
+
+    int distinctCount = 0;
+
+    for (int ndx = 0; ndx < trigrams.length; ndx++)
+      if ((ndx == 0) || (trigrams[ndx] != trigrams[ndx - 1]))
+        trigrams[distinctCount++] = trigrams[ndx];
+
+    trigrams = Arrays.copyOf(trigrams, distinctCount);
+
+    for (long trigram : trigrams)
+      trigramToPostings.computeIfAbsent(trigram, _trigram -> new Postings()).add(key);
+
+    keyToItem.put(key, item);
+    keyToTrigrams.put(key, trigrams);
+  }
+
+//---------------------------------------------------------------------------
+//---------------------------------------------------------------------------
+
+  public void remove(int key)
+  {
+    long[] trigrams = keyToTrigrams.remove(key);
+    if (trigrams == null) return;
+
+    keyToItem.remove(key);
+
+    for (long trigram : trigrams)
+    {
+      Postings postings = trigramToPostings.get(trigram);
+      postings.remove(key);
+
+      if (postings.size == 0)
+        trigramToPostings.remove(trigram);
+    }
+  }
+
+//---------------------------------------------------------------------------
+//---------------------------------------------------------------------------
+
+  // Returns null if the query is too short to narrow anything down
+
+  public List<T> getCandidates(String query)
+  {
+    int trigramCount = query.length() - MIN_QUERY_LENGTH + 1;
+    if (trigramCount < 1) return null;
+
+    Postings[] postingsArr = new Postings[trigramCount];
+
+    for (int ndx = 0; ndx < trigramCount; ndx++)
+    {
+      postingsArr[ndx] = trigramToPostings.get(trigram(query, ndx));
+      if (postingsArr[ndx] == null) return Collections.emptyList();
+    }
+
+    // Start with the rarest trigram so the intermediate result is as small as possible
+
+    Arrays.sort(postingsArr, (postings1, postings2) -> Integer.compare(postings1.size, postings2.size));
+
+    int[] result = Arrays.copyOf(postingsArr[0].keys, postingsArr[0].size);
+    int resultSize = result.length;
+
+    for (int postingsNdx = 1; (postingsNdx < trigramCount) && (resultSize > 0); postingsNdx++)
+    {
+      Postings postings = postingsArr[postingsNdx];
+      int newSize = 0, ndx = 0;
+
+      for (int resultNdx = 0; resultNdx < resultSize; resultNdx++)
+      {
+        ndx = Arrays.binarySearch(postings.keys, ndx, postings.size, result[resultNdx]);
+
+        if (ndx >= 0)
+          result[newSize++] = result[resultNdx];
+        else
+          ndx = -(ndx + 1);
+      }
+
+      resultSize = newSize;
+    }
+
+    List<T> candidates = new ArrayList<>(resultSize);
+
+    for (int ndx = 0; ndx < resultSize; ndx++)
+      candidates.add(keyToItem.get(result[ndx]));
+
+    return candidates;
+  }
+
+//---------------------------------------------------------------------------
+//---------------------------------------------------------------------------
+
+}
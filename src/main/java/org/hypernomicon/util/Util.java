@@ -53,7 +53,6 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Comparator;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
@@ -64,11 +63,11 @@ import java.util.Optional;
 import java.util.Set;
 import java.util.Timer;
 import java.util.TimerTask;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.function.Predicate;
 import java.util.jar.Manifest;
-import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.stream.Stream;
 import java.util.stream.StreamSupport;
@@ -111,7 +110,6 @@ import javafx.stage.Stage;
 import javafx.stage.Window;
 import javafx.util.Duration;
 
-import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.SystemUtils;
 import org.apache.commons.lang3.mutable.MutableInt;
 
@@ -1004,7 +1002,7 @@ public final class Util
   private static final String NORMALIZE_ID = "NFD; [:Nonspacing Mark:] Remove; NFC";
   private static final Transliterator transliterator1 = Transliterator.getInstance("NFD; Any-Latin; NFC; " + NORMALIZE_ID),
                                       transliterator2 = Transliterator.getInstance("NFD; Latin-ASCII; NFC; " + NORMALIZE_ID);
-  private static final Map<Character, String> charMap = new HashMap<>();
+  private static final Map<Character, String> charMap = new ConcurrentHashMap<>(); // Mentions index is rebuilt from multiple threads
 
   public static String convertToEnglishChars(String input)
   {
@@ -1525,170 +1523,21 @@ public final class Util
 //---------------------------------------------------------------------------
 //---------------------------------------------------------------------------
 
-// DOI legal characters according to Crossref: "a-z", "A-Z", "0-9" and "-._;()/"
-// But I've seen at least one Crossref DOI that included a colon
+  public static String matchDOI(String str) { return new IdentifierScanner(str).getDOI(); }
 
-  public static String matchDOI(String str)
-  {
-    String doi = matchDOIiteration(str);
-
-    return doi.length() > 0 ? doi : matchDOIiteration(unescapeURL(str));
-  }
-
-  private static String matchDOIiteration(String str)
-  {
-    str = prepareForIDMatch(str, false);
-
-    Pattern p = Pattern.compile("(\\A|\\D)(10\\.\\d{4,}[0-9.]*/[a-zA-Z0-9\\-._;:()/\\\\]+)(\\z|\\D)");
-    Matcher m = p.matcher(safeStr(str));
-
-    if (m.find()) return m.group(2);
-
-    str = str.replace('l', '1').replace('I', '1').replace('o', '0').replace('O', '0').replace('\u00B0', '0'); // \u00B0 is degree sign
-
-    m = p.matcher(safeStr(str));
-
-    if (m.find()) return m.group(2);
-
-    p = Pattern.compile("([dD]0[i1])(10\\.\\d{4,}[0-9.]*/[a-zA-Z0-9\\-._;:()/\\\\]+)(\\z|\\D)");
-    m = p.matcher(safeStr(str));
-
-    return m.find() ? m.group(2) : "";
-  }
-
-//---------------------------------------------------------------------------
-//---------------------------------------------------------------------------
-
-  public static List<String> matchISSN(String str)
-  {
-    return matchISSN(str, null);
-  }
+  public static List<String> matchISSN(String str) { return matchISSN(str, null); }
+  public static List<String> matchISBN(String str) { return matchISBN(str, null); }
 
   public static List<String> matchISSN(String str, List<String> list)
   {
-    if (list == null) list = new ArrayList<>();
-    if (safeStr(str).isEmpty()) return list;
-
-    str = prepareForIDMatch(str, true);
-
-    Pattern p = Pattern.compile("(\\A|\\G|[^0-9\\-])(\\d{4}-\\d{3}[\\dxX])(\\z|[^0-9\\-])");
-    Matcher m = p.matcher(str);
-
-    while (m.find())
-    {
-      String found = m.group(2).replace("-", "");
-      int sum = 0;
-
-      for (int x = 0; x < 8; x++)
-      {
-        char c = found.charAt(x);
-        int n = c == 'X' ? 10 : parseInt(String.valueOf(c), -1);
-
-        sum += n * (8 - x);
-      }
-
-      if ((sum > 0) && ((sum % 11) == 0))
-      {
-        found = m.group(2);
-
-        if (list.contains(found) == false)
-          list.add(found);
-      }
-    }
-
-    return list;
+    return new IdentifierScanner(str).addISSNs(list == null ? new ArrayList<>() : list);
   }
 
-//---------------------------------------------------------------------------
-//---------------------------------------------------------------------------
-
-  public static List<String> matchISBN(String str)
-  {
-    return matchISBN(str, null);
-  }
+  // Also checks again with horizontal whitespace removed
 
   public static List<String> matchISBN(String str, List<String> list)
   {
-    if (list == null) list = new ArrayList<>();
-    if (safeStr(str).isEmpty()) return list;
-
-    matchISBNiteration(str, list);
-
-    matchISBNiteration(str.replaceAll("\\h+", ""), list);  // remove horizontal whitespaces and check again
-
-    return list;
-  }
-
-//---------------------------------------------------------------------------
-//---------------------------------------------------------------------------
-
-  private static String prepareForIDMatch(String str, boolean disregardLetters)
-  {
-    str = str.replaceAll("\\p{Pd}", "-")  // treat all dashes the same
-             .replaceAll("\\u00AD", "-")  // "soft hyphen" is not included in the \p{Pd} class
-
-        .replace('\u0002', '/'); // sometimes slash in DOI is encoded as STX control character
-
-    if (disregardLetters)
-      str = str.replace('l', '1').replace('I', '1').replace('o', '0').replace('O', '0').replace('\u00B0', '0'); // \u00B0 is degree sign
-
-    while (str.contains("--"))
-      str = str.replace("--", "-");
-
-    return str;
-  }
-
-//---------------------------------------------------------------------------
-//---------------------------------------------------------------------------
-
-  private static void matchISBNiteration(String str, List<String> list)
-  {
-    str = prepareForIDMatch(str, true);
-
-    Pattern p = Pattern.compile("(\\A|\\G|[^0-9\\-])((\\d-?){12}\\d)(\\z|[^0-9\\-])");
-    Matcher m = p.matcher(str);
-
-    while (m.find())
-    {
-      String found = m.group(2).replace("-", "");
-
-      int n, sum = 0;
-      for (int x = 0; x < 12; x++)
-      {
-        int coeff = ((x % 2) * 2) + 1;
-        n = parseInt(String.valueOf(found.charAt(x)), -1);
-        sum += coeff * n;
-      }
-
-      n = parseInt(StringUtils.right(found, 1), -1);
-
-      if ((sum > 0) && (((10 - (sum % 10)) % 10) == n))
-      {
-        if (list.contains(found) == false)
-          list.add(found);
-      }
-    }
-
-    p = Pattern.compile("(\\A|\\G|[^0-9\\-])((\\d-?){9}[0-9xX])(\\z|[^0-9xX\\-])");
-    m = p.matcher(str);
-
-    while (m.find())
-    {
-      String found = m.group(2).toUpperCase().replace("-", "");
-      int sum1 = 0, sum2 = 0;
-
-      for (int x = 0; x < 10; x++)
-      {
-        char c = found.charAt(x);
-        int n = c == 'X' ? 10 : parseInt(String.valueOf(c), -1);
-
-        sum1 += n * (10 - x);
-        sum2 += n * (x + 1);
-      }
-
-      if ((sum1 > 0) && (sum2 > 0) && ((sum1 % 11) == 0) && ((sum2 % 11) == 0) && (list.contains(found) == false))
-        list.add(found);
-    }
+    return new IdentifierScanner(str).addISBNs(list == null ? new ArrayList<>() : list);
   }
 
 //---------------------------------------------------------------------------
@@ -882,7 +882,7 @@ public final class MainCtrlr
           }
         }
 
-        saveAllToDisk(false, false, false);
+        saveAllToDisk(false, false, false, true);
       }
 
       shuttingDown = true;
@@ -1087,6 +1087,14 @@ public final class MainCtrlr
 //---------------------------------------------------------------------------
 
   public boolean saveAllToDisk(boolean saveRecord, boolean restartWatcher, boolean updateUI)
+  {
+    return saveAllToDisk(saveRecord, restartWatcher, updateUI, false);
+  }
+
+  // When the database is being closed, every XML file is written, as a safety net in case a change didn't mark its
+  // record type dirty
+
+  private boolean saveAllToDisk(boolean saveRecord, boolean restartWatcher, boolean updateUI, boolean closing)
   {
     try
     {
@@ -1109,7 +1117,7 @@ public final class MainCtrlr
 
       boolean watcherWasRunning = folderTreeWatcher.stop();
 
-      db.saveAllToDisk(favorites);
+      db.saveAllToDisk(favorites, closing);
 
       if (restartWatcher && watcherWasRunning)
         folderTreeWatcher.createNewWatcherAndStart();
@@ -1181,7 +1189,7 @@ public final class MainCtrlr
       if (result == mrYes)
       {
         if (cantSaveRecord()) return;
-        saveAllToDisk(false, false, false);
+        saveAllToDisk(false, false, false, true);
       }
 
       closeWindows(false);
@@ -1235,7 +1243,7 @@ public final class MainCtrlr
       if (result == mrCancel) return;
 
       if (result == mrYes)
-        saveAllToDisk(false, false, false);
+        saveAllToDisk(false, false, false, true);
 
       NewDatabaseDlgCtrlr dlg = NewDatabaseDlgCtrlr.build(rootPath.toString());
 
@@ -1400,7 +1408,7 @@ public final class MainCtrlr
       if (result == mrYes)
       {
         if (cantSaveRecord()) return;
-        saveAllToDisk(false, false, false);
+        saveAllToDisk(false, false, false, true);
       }
     }
 
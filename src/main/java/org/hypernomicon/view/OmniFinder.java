@@ -24,12 +24,15 @@ import static org.hypernomicon.util.Util.*;
 import static org.hypernomicon.view.wrappers.HyperTableCell.CellSortMethod.*;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.EnumMap;
 import java.util.EnumSet;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.function.Function;
 
 import org.hypernomicon.HyperTask.HyperThread;
 import org.hypernomicon.model.KeywordLinkList.KeywordLink;
@@ -38,6 +41,7 @@ import org.hypernomicon.model.items.Author;
 import org.hypernomicon.model.items.StrongLink;
 import org.hypernomicon.model.records.*;
 import org.hypernomicon.query.engines.AllQueryEngine;
+import org.hypernomicon.util.TrigramIndex;
 import org.hypernomicon.view.wrappers.HyperTable;
 import org.hypernomicon.view.wrappers.HyperTableCell;
 import org.hypernomicon.view.wrappers.HyperTableRow;
@@ -84,6 +88,113 @@ public class OmniFinder
 
   private static final int ROWS_TO_SHOW = 25;
 
+  // Trigram indexes of the strings that isMatch compares the query to, for each record type. They are
+  // shared by all finders and updated for a type when names, search keys or authors of its records have changed.
+  // Records are keyed by ID, so candidates come back in the same order that db.records iterates them in.
+
+  private static final class TypeIndex
+  {
+    private final RecordType type;
+    private int modCount;
+    private final TrigramIndex<HDT_Record> names = new TrigramIndex<>(), searchKeys = new TrigramIndex<>(), authors = new TrigramIndex<>();
+
+    private TypeIndex(RecordType type, int modCount)
+    {
+      this.type = type;
+      this.modCount = modCount;
+
+      db.records(type).forEach(this::add);
+    }
+
+    // Reindexes only the records whose listing changed, removing the ones that were deleted
+
+    private void update(Set<Integer> ids, int newModCount)
+    {
+      for (int id : ids)
+      {
+        HDT_Record record = db.records(type).getByID(id);
+
+        if (record != null)
+          add(record);
+        else
+        {
+          names.remove(id);
+          searchKeys.remove(id);
+          authors.remove(id);
+        }
+      }
+
+      modCount = newModCount;
+    }
+
+    private void add(HDT_Record record)
+    {
+      int id = record.getID();
+      List<String> authorStrs = new ArrayList<>();
+
+      if (type == hdtPerson)
+        names.add(id, record, personStrs((HDT_Person)record, new ArrayList<>()));
+      else
+        names.add(id, record, Collections.singletonList(record.getNameEngChar().toLowerCase()));
+
+      searchKeys.add(id, record, Collections.singletonList(record.getSearchKey().toLowerCase()));
+
+      if (type == hdtWork)
+      {
+        for (Author author : ((HDT_Work)record).getAuthors())
+        {
+          String fullName = author.getFullName(true).toLowerCase().trim();
+
+          authorStrs.add(author.getNameLastFirst(true).toLowerCase().trim());
+          authorStrs.add(fullName);
+          authorStrs.add(removeFirstParenthetical(fullName));
+        }
+      }
+      else if (type == hdtMiscFile)
+        ((HDT_MiscFile)record).authorRecords().forEach(person -> personStrs(person, authorStrs));
+
+      authors.add(id, record, authorStrs);
+    }
+
+    private static List<String> personStrs(HDT_Person person, List<String> strs)
+    {
+      String fullName = person.getFullName(true).toLowerCase().trim();
+
+      strs.add(person.getNameLastFirst(true).toLowerCase().trim());
+      strs.add(fullName);
+      strs.add(removeFirstParenthetical(fullName));
+      return strs;
+    }
+  }
+
+  private static final Map<RecordType, TypeIndex> typeToIndex = new EnumMap<>(RecordType.class);
+
+  // The indexes are updated in place, so candidates are only looked up while holding the lock
+
+  private static synchronized List<HDT_Record> getCandidates(RecordType type, Function<TypeIndex, TrigramIndex<HDT_Record>> indexGetter, String query)
+  {
+    int modCount = db.getListingModCount(type);
+    TypeIndex index = typeToIndex.get(type);
+
+    if ((index != null) && (index.modCount != modCount))
+    {
+      Set<Integer> changedIDs = db.getListingChangesSince(type, index.modCount);
+
+      if (changedIDs == null) // Too many changes, or ones that weren't logged by ID
+        index = null;
+      else
+        index.update(changedIDs, modCount);
+    }
+
+    if (index == null)
+    {
+      index = new TypeIndex(type, modCount);
+      typeToIndex.put(type, index);
+    }
+
+    return indexGetter.apply(index).getCandidates(query);
+  }
+
   public OmniFinder(HyperTable htFind) { this(htFind, hdtNone, true); }
 
   public OmniFinder(HyperTable htFind, RecordType typeFilter, boolean incremental)
@@ -170,7 +281,7 @@ public class OmniFinder
       tierIt = tierSet.iterator();
       curTier = tierIt.next();
       typeIt = tierToTypeSet.get(curTier).iterator();
-      recordIt = db.records(typeIt.next()).iterator();
+      recordIt = tierRecords(typeIt.next());
       records.clear();
 
       done = false;
@@ -199,7 +310,7 @@ public class OmniFinder
       {
         curTier = tierIt.next();
         typeIt = tierToTypeSet.get(curTier).iterator();
-        recordIt = db.records(typeIt.next()).iterator();
+        recordIt = tierRecords(typeIt.next());
       }
 
       while (recordIt.hasNext() == false)
@@ -216,21 +327,15 @@ public class OmniFinder
 
           if (curTier == tierKeywordStart)
           {
-            List<SearchKeyword> keys = db.getKeysByPrefix(safeSubstring(query, 0, 3).toLowerCase());
+            String lowerQuery = query.toLowerCase();
 
-            for (SearchKeyword key : keys)
-            {
-              if (key.endOnly)
-              {
-                if (key.text.equalsIgnoreCase(query))
-                  return getResultRecord(key.record);
-              }
-              else
-              {
-                if (query.toLowerCase().startsWith(key.text.toLowerCase()))
-                  return getResultRecord(key.record);
-              }
-            }
+            SearchKeyword key = db.findKeyByPrefix(query, curKey -> curKey.endOnly ?
+              curKey.text.equalsIgnoreCase(query)
+            :
+              lowerQuery.startsWith(curKey.text.toLowerCase()));
+
+            if (key != null)
+              return getResultRecord(key.record);
 
             curTier = tierIt.next();  // Start of query did not match a keyword
           }
@@ -238,7 +343,7 @@ public class OmniFinder
           typeIt = tierToTypeSet.get(curTier).iterator();
         }
 
-        recordIt = db.records(typeIt.next()).iterator();
+        recordIt = tierRecords(typeIt.next());
       }
 
       return recordIt.next();
@@ -247,6 +352,45 @@ public class OmniFinder
     //---------------------------------------------------------------------------
     //---------------------------------------------------------------------------
 
+    // Narrows down which records of the type isMatch needs to check for the current tier
+
+    private Iterator<? extends HDT_Record> tierRecords(RecordType type)
+    {
+      List<HDT_Record> candidates = null;
+
+      switch (curTier)
+      {
+        case tierKeyword: case tierAuthorKeyword:
+
+          if (AllQueryEngine.linkList.getLinks().isEmpty())
+            return Collections.emptyIterator();
+
+          break;
+
+        case tierExactName: case tierNameStartExact: case tierNameContains:
+
+          candidates = getCandidates(type, index -> index.names, queryLC);
+          break;
+
+        case tierKeywordContains:
+
+          candidates = getCandidates(type, index -> index.searchKeys, queryLC);
+          break;
+
+        case tierAuthorExact: case tierAuthorStartExact: case tierAuthorContains:
+
+          candidates = getCandidates(type, index -> index.authors, queryLC);
+          break;
+
+        default: break;
+      }
+
+      return candidates == null ? db.records(type).iterator() : candidates.iterator();
+    }
+
+    //---------------------------------------------------------------------------
+    //---------------------------------------------------------------------------
+
     private HDT_Record getResultRecord(HDT_Record input)
     {
       if (input.getType() != hdtHub)
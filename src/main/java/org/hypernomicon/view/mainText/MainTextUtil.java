@@ -52,6 +52,7 @@ import org.hypernomicon.model.records.HDT_Record;
 import org.hypernomicon.model.records.RecordType;
 import org.hypernomicon.model.records.HDT_RecordWithConnector;
 import org.hypernomicon.model.records.HDT_WorkLabel;
+import org.hypernomicon.util.HtmlTextExtractor;
 import org.hypernomicon.util.filePath.FilePath;
 import org.hypernomicon.view.HyperView.TextViewInfo;
 import org.jsoup.Jsoup;
@@ -857,6 +858,36 @@ public class MainTextUtil
     return null;
   }
 
+//---------------------------------------------------------------------------
+//---------------------------------------------------------------------------
+
+  // Returns the IDs from the embedded misc. file tags, whether or not those records exist
+
+  public static int[] getEmbeddedMiscFileIDs(String str)
+  {
+    List<Integer> ids = new ArrayList<>();
+    int startNdx = str.indexOf("&lt;" + EMBEDDED_FILE_TAG), endNdx;
+
+    while (startNdx >= 0)
+    {
+      endNdx = str.indexOf("&gt;", startNdx);
+      if (endNdx < 0) break;
+
+      String tag = Parser.unescapeEntities(str.substring(startNdx, endNdx + 4), true);
+      Element element = Jsoup.parse(tag).getElementsByTag(EMBEDDED_FILE_TAG).first();
+
+      if (element != null)
+      {
+        int id = parseInt(element.attr("id"), -1);
+        if ((id > 0) && (ids.contains(id) == false)) ids.add(id);
+      }
+
+      startNdx = str.indexOf("&lt;" + EMBEDDED_FILE_TAG, startNdx + 1);
+    }
+
+    return ids.stream().mapToInt(Integer::intValue).toArray();
+  }
+
 //---------------------------------------------------------------------------
 //---------------------------------------------------------------------------
 
@@ -867,7 +898,7 @@ public class MainTextUtil
 
   public static String extractTextFromHTML(String html, boolean forComparison)
   {
-    return ultraTrim(Jsoup.parse(prepHtmlForDisplay(html, forComparison)).text());
+    return ultraTrim(HtmlTextExtractor.extract(prepHtmlForDisplay(html, forComparison)));
   }
 
 //---------------------------------------------------------------------------
@@ -69,6 +69,17 @@ public abstract class Populator
   //---------------------------------------------------------------------------
   //---------------------------------------------------------------------------
 
+  // Choice lists that can find a choice by ID without going through the whole list. A list like this
+  // should also override contains so that equalMatch does not have to go through the whole list.
+
+  interface IndexedChoices
+  {
+    HyperTableCell getByID(int id); // Returns the first choice with the ID, or null if there isn't one
+  }
+
+  //---------------------------------------------------------------------------
+  //---------------------------------------------------------------------------
+
   public static final HyperTableRow dummyRow = new HyperTableRow(null, null);
 
   public static enum CellValueType
@@ -129,7 +140,12 @@ public abstract class Populator
 
   public HyperTableCell getChoiceByID(HyperTableRow row, int id)
   {
-    for (HyperTableCell cell : populate(nullSwitch(row, dummyRow), false))
+    List<HyperTableCell> choices = populate(nullSwitch(row, dummyRow), false);
+
+    if (choices instanceof IndexedChoices)
+      return ((IndexedChoices) choices).getByID(id);
+
+    for (HyperTableCell cell : choices)
       if (HyperTableCell.getCellID(cell) == id)
         return cell;
 
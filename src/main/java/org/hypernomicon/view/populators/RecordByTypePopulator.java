@@ -18,18 +18,22 @@
 package org.hypernomicon.view.populators;
 
 import java.time.Instant;
+import java.util.AbstractList;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.function.IntUnaryOperator;
 import java.util.function.Predicate;
 
 import static org.hypernomicon.model.HyperDB.*;
 import static org.hypernomicon.util.Util.*;
 import static org.hypernomicon.model.records.RecordType.*;
 import static org.hypernomicon.view.populators.Populator.CellValueType.*;
-import static org.hypernomicon.view.wrappers.HyperTableCell.CellSortMethod.*;
 
 import org.hypernomicon.model.records.HDT_Record;
 import org.hypernomicon.model.records.RecordType;
@@ -153,6 +157,101 @@ public class RecordByTypePopulator extends Populator
     return recent;
   }
 
+//---------------------------------------------------------------------------
+//---------------------------------------------------------------------------
+
+  // A row's choices: the most recently viewed records, then the rest of the shared sorted cells for the record
+  // type, then the cells at the end (a blank cell and any entries added later). The sorted cells are not copied,
+  // and are looked up by ID using the index that was built along with them.
+
+  private static final class RowChoices extends AbstractList<HyperTableCell> implements IndexedChoices
+  {
+    private final List<HyperTableCell> recent, sorted, end = new ArrayList<>();
+    private final IntUnaryOperator sortedNdxOfID; // Returns -1 if there is no sorted cell with the ID
+    private final int[] skipNdxs;                 // Indexes in sorted of the recent records, in ascending order
+
+  //---------------------------------------------------------------------------
+
+    private RowChoices(HyperTableCell... endCells)
+    {
+      this(new ArrayList<>(), new ArrayList<>(), id -> -1, new int[0], endCells);
+    }
+
+    private RowChoices(List<HyperTableCell> recent, List<HyperTableCell> sorted, IntUnaryOperator sortedNdxOfID, int[] skipNdxs, HyperTableCell... endCells)
+    {
+      this.recent = recent;
+      this.sorted = sorted;
+      this.sortedNdxOfID = sortedNdxOfID;
+      this.skipNdxs = skipNdxs;
+
+      end.addAll(Arrays.asList(endCells));
+    }
+
+  //---------------------------------------------------------------------------
+
+    private int sortedSize()      { return sorted.size() - skipNdxs.length; }
+    @Override public int size()   { return recent.size() + sortedSize() + end.size(); }
+
+    @Override public boolean add(HyperTableCell cell)
+    {
+      end.add(cell);
+      modCount++;
+      return true;
+    }
+
+  //---------------------------------------------------------------------------
+
+    @Override public HyperTableCell get(int ndx)
+    {
+      if (ndx < recent.size()) return recent.get(ndx);
+      ndx -= recent.size();
+
+      if (ndx >= sortedSize()) return end.get(ndx - sortedSize());
+
+      for (int skipNdx : skipNdxs)
+      {
+        if (skipNdx > ndx) break;
+        ndx++;
+      }
+
+      return sorted.get(ndx);
+    }
+
+  //---------------------------------------------------------------------------
+
+    private HyperTableCell getSortedByID(int id)
+    {
+      int ndx = id < 1 ? -1 : sortedNdxOfID.applyAsInt(id);
+
+      return (ndx < 0) || (Arrays.binarySearch(skipNdxs, ndx) >= 0) ? null : sorted.get(ndx);
+    }
+
+  //---------------------------------------------------------------------------
+
+    @Override public HyperTableCell getByID(int id)
+    {
+      HyperTableCell cell = findFirst(recent, choice -> HyperTableCell.getCellID(choice) == id);
+      if (cell != null) return cell;
+
+      cell = getSortedByID(id);
+      return cell != null ? cell : findFirst(end, choice -> HyperTableCell.getCellID(choice) == id);
+    }
+
+  //---------------------------------------------------------------------------
+
+    // A cell with an ID can only be equal to a cell with the same ID, and the sorted cells all have IDs
+
+    @Override public boolean contains(Object obj)
+    {
+      if ((obj instanceof HyperTableCell) == false) return false;
+
+      if (recent.contains(obj) || end.contains(obj)) return true;
+
+      HyperTableCell cell = getSortedByID(((HyperTableCell) obj).getID());
+      return (cell != null) && cell.equals(obj);
+    }
+  }
+
 //---------------------------------------------------------------------------
 //---------------------------------------------------------------------------
 
@@ -164,21 +263,28 @@ public class RecordByTypePopulator extends Populator
       rowToRecordType.put(row, hdtNone);
 
     if (rowToChoices.containsKey(row) == false)
-      rowToChoices.put(row, new ArrayList<>());
-
-    List<HyperTableCell> choices = rowToChoices.get(row), recentChoices = new ArrayList<>();
+      rowToChoices.put(row, new RowChoices(HyperTableCell.blankCell));
 
     if ((hasChanged(row) == false) && (force == false))
-      return choices;
+      return rowToChoices.get(row);
 
-    RecordType recordType = rowToRecordType.get(row);
-    choices.clear();
-    choices.add(HyperTableCell.blankCell);
+    List<HyperTableCell> choices = getChoices(rowToRecordType.get(row));
+
+    rowToChoices.put(row, choices);
+    rowToChanged.put(row, false);
+    return choices;
+  }
 
-    if ((recordType == hdtNone) || (db.isLoaded() == false)) return choices;
+//---------------------------------------------------------------------------
+//---------------------------------------------------------------------------
+
+  private List<HyperTableCell> getChoices(RecordType recordType)
+  {
+    if ((recordType == hdtNone) || (db.isLoaded() == false) || (db.records(recordType).size() == 0))
+      return new RowChoices(HyperTableCell.blankCell);
 
-    Map<Integer, Boolean> map = new HashMap<>();
-    boolean firstAdd = true;
+    List<HyperTableCell> recentChoices = new ArrayList<>();
+    Set<Integer> recentIDs = new HashSet<>();
 
     if (recordType.getDisregardDates() == false)
     {
@@ -186,49 +292,43 @@ public class RecordByTypePopulator extends Populator
       {
         HDT_Record record = db.records(recordType).getByID(id.intValue());
 
-        if (firstAdd)
-        {
-          choices.clear();
-          firstAdd = false;
-        }
-
         recentChoices.add(new HyperTableCell(record, nameOnly ? record.name() : record.getCBText()));
-
-        map.put(id, true);
+        recentIDs.add(id);
       }
     }
 
-    for (HDT_Record record : db.records(recordType).keyIterable())
+    SortedRecordCells sortedCells = SortedRecordCells.get(recordType, nameOnly);
+    List<HyperTableCell> sorted;
+    IntUnaryOperator sortedNdxOfID;
+    int[] skipNdxs;
+
+    if (filter == null)
     {
-      if (map.containsKey(record.getID()) == false)
-      {
-        HyperTableCell choice = getCell(record);
+      sorted = sortedCells.getCells();
+      sortedNdxOfID = sortedCells::indexOf;
+      skipNdxs = recentIDs.stream().mapToInt(sortedCells::indexOf).filter(ndx -> ndx >= 0).sorted().toArray();
+    }
+    else
+    {
+      Map<Integer, Integer> idToNdx = new HashMap<>();
+      sorted = new ArrayList<>();
 
-        if (choice != null)
-        {
-          if (firstAdd)
-          {
-            choices.clear();
-            firstAdd = false;
-          }
+      for (HyperTableCell cell : sortedCells.getCells())
+      {
+        if (recentIDs.contains(cell.getID()) || (filter.test(cell.getID()) == false)) continue;
 
-          addToSortedList(choices, choice);
-        }
+        idToNdx.put(cell.getID(), sorted.size());
+        sorted.add(cell);
       }
-    }
 
-    if (db.records(recordType).size() == 0)
-      choices.clear();
-    else if (recentChoices.size() > 0)
-    {
-      for (int ndx = 0; ndx < recentChoices.size(); ndx++)
-        choices.add(ndx, recentChoices.get(ndx));
+      sortedNdxOfID = id -> idToNdx.getOrDefault(id, -1);
+      skipNdxs = new int[0];
     }
 
-    choices.add(HyperTableCell.blankCell);
+    if (recentChoices.isEmpty() && (sorted.size() == skipNdxs.length)) // Nothing to choose from besides the blank cells
+      return new RowChoices(HyperTableCell.blankCell, HyperTableCell.blankCell);
 
-    rowToChanged.put(row, false);
-    return choices;
+    return new RowChoices(recentChoices, sorted, sortedNdxOfID, skipNdxs, HyperTableCell.blankCell);
   }
 
 //---------------------------------------------------------------------------
@@ -239,12 +339,7 @@ public class RecordByTypePopulator extends Populator
     if ((record == null) || ((filter != null) && (filter.test(record.getID()) == false)))
       return null;
 
-    if (nameOnly)
-      return new HyperTableCell(record, record.name());
-    else if (record.getType() == hdtWork)
-      return new HyperTableCell(record, record.getCBText(), smWork);
-    else
-      return new HyperTableCell(record, record.getCBText());
+    return SortedRecordCells.makeCell(record, nameOnly);
   }
 
 //---------------------------------------------------------------------------
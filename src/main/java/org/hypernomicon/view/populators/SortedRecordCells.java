@@ -0,0 +1,143 @@
+/*
+ * Copyright 2015-2020 Jason Winning
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.hypernomicon.view.populators;
+
+import static org.hypernomicon.model.HyperDB.*;
+import static org.hypernomicon.model.records.RecordType.*;
+import static org.hypernomicon.util.Util.*;
+import static org.hypernomicon.view.wrappers.HyperTableCell.CellSortMethod.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.hypernomicon.model.HyperDataset;
+import org.hypernomicon.model.records.HDT_Record;
+import org.hypernomicon.model.records.RecordType;
+import org.hypernomicon.view.wrappers.HyperTableCell;
+
+//---------------------------------------------------------------------------
+
+// Sorted choice cells for all records of a type, shared by all RecordByTypePopulators. A snapshot never
+// changes once it is made. When the type's listing mod count has gone up, a new snapshot is made from the
+// old one by taking out the cells of the records HyperDB logged as changed, and inserting new cells for
+// the ones that still exist. It is only sorted from scratch if more than a quarter of them changed, or
+// if HyperDB doesn't know which records changed.
+
+final class SortedRecordCells
+{
+
+//---------------------------------------------------------------------------
+
+  private final int modCount;
+  private final List<HyperTableCell> cells;
+  private final Map<Integer, Integer> idToNdx = new HashMap<>();
+
+  private static final Map<RecordType, SortedRecordCells> typeToCells         = new EnumMap<>(RecordType.class),
+                                                          typeToNameOnlyCells = new EnumMap<>(RecordType.class);
+
+//---------------------------------------------------------------------------
+//---------------------------------------------------------------------------
+
+  private SortedRecordCells(int modCount, List<HyperTableCell> cells)
+  {
+    this.modCount = modCount;
+    this.cells = Collections.unmodifiableList(cells);
+
+    for (int ndx = 0; ndx < cells.size(); ndx++)
+      idToNdx.put(cells.get(ndx).getID(), ndx);
+  }
+
+//---------------------------------------------------------------------------
+
+  List<HyperTableCell> getCells()   { return cells; }
+  int size()                        { return cells.size(); }
+
+  // Returns -1 if there is no cell for the record
+
+  int indexOf(int id)               { return idToNdx.getOrDefault(id, -1); }
+
+//---------------------------------------------------------------------------
+//---------------------------------------------------------------------------
+
+  static synchronized SortedRecordCells get(RecordType type, boolean nameOnly)
+  {
+    Map<RecordType, SortedRecordCells> map = nameOnly ? typeToNameOnlyCells : typeToCells;
+    int modCount = db.getListingModCount(type);
+    SortedRecordCells sortedCells = map.get(type);
+
+    if ((sortedCells == null) || (sortedCells.modCount != modCount))
+    {
+      sortedCells = update(sortedCells, type, nameOnly, modCount);
+      map.put(type, sortedCells);
+    }
+
+    return sortedCells;
+  }
+
+//---------------------------------------------------------------------------
+//---------------------------------------------------------------------------
+
+  static HyperTableCell makeCell(HDT_Record record, boolean nameOnly)
+  {
+    if (nameOnly)
+      return new HyperTableCell(record, record.name());
+    else if (record.getType() == hdtWork)
+      return new HyperTableCell(record, record.getCBText(), smWork);
+    else
+      return new HyperTableCell(record, record.getCBText());
+  }
+
+//---------------------------------------------------------------------------
+//---------------------------------------------------------------------------
+
+  private static SortedRecordCells update(SortedRecordCells oldCells, RecordType type, boolean nameOnly, int modCount)
+  {
+    Set<Integer> changedIDs = oldCells == null ? null : db.getListingChangesSince(type, oldCells.modCount);
+    HyperDataset<? extends HDT_Record>.CoreAccessor records = db.records(type);
+
+    if ((changedIDs == null) || (changedIDs.size() > (records.size() / 4)))
+    {
+      List<HyperTableCell> cells = new ArrayList<>(records.size());
+
+      records.forEach(record -> cells.add(makeCell(record, nameOnly)));
+      cells.sort(null);
+
+      return new SortedRecordCells(modCount, cells);
+    }
+
+    List<HyperTableCell> cells = new ArrayList<>(records.size());
+
+    oldCells.cells.forEach(cell ->
+    {
+      if (changedIDs.contains(cell.getID()) == false)
+        cells.add(cell);
+    });
+
+    changedIDs.forEach(id -> nullSwitch(records.getByID(id), record -> addToSortedList(cells, makeCell(record, nameOnly))));
+
+    return new SortedRecordCells(modCount, cells);
+  }
+
+//---------------------------------------------------------------------------
+
+}
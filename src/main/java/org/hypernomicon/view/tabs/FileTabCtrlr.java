@@ -89,7 +89,7 @@ public class FileTabCtrlr extends HyperTab<HDT_MiscFile, HDT_MiscFile>
 
   @Override public boolean update()
   {
-    btnTree.setDisable(ui.tree().getRowsForRecord(curMiscFile).isEmpty());
+    btnTree.setDisable(ui.tree().isInTree(curMiscFile) == false);
 
     tfName.setText(curMiscFile.name());
     tfSearchKey.setText(curMiscFile.getSearchKey());
@@ -681,7 +681,7 @@ public class WorkTabCtrlr extends HyperTab<HDT_Work, HDT_Work>
 
   @Override public boolean update()
   {
-    btnTree.setDisable(ui.tree().getRowsForRecord(curWork).isEmpty());
+    btnTree.setDisable(ui.tree().isInTree(curWork) == false);
 
     WorkTypeEnum workTypeEnumVal = curWork.getWorkTypeEnum();
 